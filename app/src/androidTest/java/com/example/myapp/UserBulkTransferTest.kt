@@ -0,0 +1,117 @@
+package com.example.myapp
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+
+/**
+ * Imports a few accounts, exports them again and feeds the export back to import, which
+ * must refuse it: exports have no passwords, so importing one would create every account
+ * with the wrong password. Also covers which pre-hashed passwords an import may carry.
+ */
+@RunWith(AndroidJUnit4::class)
+class UserBulkTransferTest {
+
+    private val context = InstrumentationRegistry.getInstrumentation().targetContext
+    private lateinit var dbHelper: UserDatabaseHelper
+    private lateinit var transfer: UserBulkTransfer
+
+    @Before
+    fun setUp() {
+        context.deleteDatabase(TEST_DB)
+        dbHelper = UserDatabaseHelper(context, TEST_DB)
+        transfer = UserBulkTransfer(dbHelper, CredentialEngine.getInstance(context))
+    }
+
+    @After
+    fun tearDown() {
+        dbHelper.close()
+        context.deleteDatabase(TEST_DB)
+    }
+
+    @Test
+    fun csvExportIsNotImportedAsPasswords() {
+        val report = import("username,password,nickname\nalice,pw1,Alice\nbob,pw2,\"Bob, Jr\"\ncarol,pw3,\n",
+            UserBulkTransfer.Format.CSV)
+        assertEquals(3, report.imported)
+
+        val exported = export(UserBulkTransfer.Format.CSV)
+        val lines = exported.trim().lines()
+        assertEquals(UserBulkTransfer.EXPORT_CSV_HEADER, lines[0])
+        assertEquals(4, lines.size)
+        assertTrue(lines.any { it.startsWith("bob,\"Bob, Jr\",") })
+        assertTrue(lines.any { it.startsWith("carol,carol,") })
+
+        assertRejected(exported, UserBulkTransfer.Format.CSV)
+    }
+
+    @Test
+    fun jsonExportIsNotImportedAsPasswords() {
+        val report = import("[{\"username\": \"alice\", \"password\": \"pw1\", \"nickname\": \"Alice\"}," +
+                "{\"username\": \"bob\", \"password\": \"pw2\"}]", UserBulkTransfer.Format.JSON)
+        assertEquals(2, report.imported)
+
+        val exported = export(UserBulkTransfer.Format.JSON)
+        assertTrue(exported.contains("\"username\":\"alice\""))
+        assertTrue(exported.contains("\"nickname\":\"Alice\""))
+
+        assertRejected(exported, UserBulkTransfer.Format.JSON)
+    }
+
+    @Test
+    fun preHashedPasswordsNeedOptInAndFullCost() {
+        val strong = PasswordHasher.hash("pw1", PasswordHasher.MIN_ITERATIONS)
+        val weak = PasswordHasher.hash("pw2", 1_000)
+        val csv = "username,password\nalice,$strong\nbob,$weak\ncarol,pw3\n"
+
+        val refused = import(csv, UserBulkTransfer.Format.CSV)
+        assertEquals(1, refused.imported)
+        assertEquals(listOf("alice", "bob"), refused.invalid.map { it.username })
+
+        dbHelper.close()
+        context.deleteDatabase(TEST_DB)
+        dbHelper = UserDatabaseHelper(context, TEST_DB)
+        transfer = UserBulkTransfer(dbHelper, CredentialEngine.getInstance(context))
+        val optedIn = transfer.importUsers(ByteArrayInputStream(csv.toByteArray()), UserBulkTransfer.Format.CSV,
+            acceptHashed = true)
+        assertEquals(2, optedIn.imported)
+        assertEquals(listOf("bob"), optedIn.invalid.map { it.username })
+        assertEquals(strong, dbHelper.getPasswordHash(dbHelper.resolveId("alice")))
+    }
+
+    private fun assertRejected(exported: String, format: UserBulkTransfer.Format) {
+        dbHelper.close()
+        context.deleteDatabase(TEST_DB)
+        dbHelper = UserDatabaseHelper(context, TEST_DB)
+        transfer = UserBulkTransfer(dbHelper, CredentialEngine.getInstance(context))
+        try {
+            import(exported, format)
+            fail("export file was imported")
+        } catch (e: IllegalArgumentException) {
+            // Expected
+        }
+        // Nothing was written either
+        assertEquals(0, transfer.exportUsers(ByteArrayOutputStream(), format))
+    }
+
+    private fun import(text: String, format: UserBulkTransfer.Format) =
+        transfer.importUsers(ByteArrayInputStream(text.toByteArray()), format)
+
+    private fun export(format: UserBulkTransfer.Format): String {
+        val out = ByteArrayOutputStream()
+        transfer.exportUsers(out, format)
+        return out.toString("UTF-8")
+    }
+
+    companion object {
+        private const val TEST_DB = "bulk_transfer_test.db"
+    }
+}
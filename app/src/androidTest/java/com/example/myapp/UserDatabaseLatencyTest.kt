@@ -0,0 +1,63 @@
+package com.example.myapp
+
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Compares the login -> personal center query path with a connection that is
+ * reopened after every call (the old behaviour) against the shared, WAL-mode one.
+ * It checks nothing; it logs both medians side by side under "DbLatency" so the gap
+ * can be read off a given device.
+ */
+@RunWith(AndroidJUnit4::class)
+class UserDatabaseLatencyTest {
+
+    private val context = InstrumentationRegistry.getInstrumentation().targetContext
+    private lateinit var dbHelper: UserDatabaseHelper
+    private var userId = 0L
+
+    @Before
+    fun setUp() {
+        context.deleteDatabase(TEST_DB)
+        dbHelper = UserDatabaseHelper(context, TEST_DB)
+        userId = dbHelper.addUser("latency_user", "123456")
+    }
+
+    @After
+    fun tearDown() {
+        dbHelper.close()
+        context.deleteDatabase(TEST_DB)
+    }
+
+    @Test
+    fun compareSharedConnectionWithReopening() {
+        // Warm up both paths once so class loading does not skew the first sample
+        loginPath(reopen = true)
+        loginPath(reopen = false)
+
+        val reopened = medianMicros(ITERATIONS) { loginPath(reopen = true) }
+        val shared = medianMicros(ITERATIONS) { loginPath(reopen = false) }
+        Log.i("DbLatency", "login -> personal center: reopen=${reopened}us shared=${shared}us")
+    }
+
+    private fun loginPath(reopen: Boolean) {
+        dbHelper.getPasswordHash(userId)
+        if (reopen) dbHelper.close()
+        dbHelper.updateLastLogin(userId)
+        if (reopen) dbHelper.close()
+        dbHelper.getUserNickname(userId)
+        if (reopen) dbHelper.close()
+        dbHelper.getUserAvatar(userId)
+        if (reopen) dbHelper.close()
+    }
+
+    companion object {
+        private const val TEST_DB = "UserLatencyTest.db"
+        private const val ITERATIONS = 50
+    }
+}
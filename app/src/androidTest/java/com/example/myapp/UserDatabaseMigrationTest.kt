@@ -0,0 +1,194 @@
+package com.example.myapp
+
+import android.database.sqlite.SQLiteDatabase
+import android.os.SystemClock
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Builds User.db files in each older layout, fills them with ROWS accounts and opens them
+ * through UserDatabaseHelper to run the upgrade. Checks that every account survives and
+ * that the result matches a freshly created database; upgrade times are written to
+ * logcat under the "DbMigration" tag.
+ */
+@RunWith(AndroidJUnit4::class)
+class UserDatabaseMigrationTest {
+
+    private val context = InstrumentationRegistry.getInstrumentation().targetContext
+
+    @Before
+    fun setUp() {
+        context.deleteDatabase(TEST_DB)
+        context.deleteDatabase(FRESH_DB)
+    }
+
+    @After
+    fun tearDown() {
+        context.deleteDatabase(TEST_DB)
+        context.deleteDatabase(FRESH_DB)
+    }
+
+    @Test
+    fun legacyV4WithoutNicknameKeepsAccounts() {
+        createOldDatabase(4,
+            "CREATE TABLE users(id INTEGER PRIMARY KEY AUTOINCREMENT, username TEXT UNIQUE," +
+                " password TEXT, avatar_uri TEXT)",
+            "INSERT INTO users(username, password, avatar_uri) VALUES (?, ?, ?)"
+        ) { i -> arrayOf("user$i", "pw$i", null) }
+
+        val helper = upgrade("4 -> current")
+        assertEquals(ROWS.toLong(), count(helper, "SELECT COUNT(*) FROM users"))
+        assertEquals(0L, count(helper, "SELECT COUNT(*) FROM users WHERE nickname IS NOT username"))
+        assertEquals("pw7", helper.getPasswordHash(helper.resolveId("user7")))
+        assertSchemaMatchesFresh(helper)
+        helper.close()
+    }
+
+    @Test
+    fun v5KeepsAccountsAndEncodesAvatars() {
+        createOldDatabase(5, CREATE_V5, INSERT_V5) { i ->
+            arrayOf("user$i", "pw$i", "nick$i", "android.resource://com.example.myapp/$i", i.toLong())
+        }
+
+        val helper = upgrade("5 -> current")
+        assertEquals(ROWS.toLong(), count(helper, "SELECT COUNT(*) FROM users"))
+        assertEquals(0L, count(helper, "SELECT COUNT(*) FROM users WHERE avatar_uri NOT LIKE 'r:%'"))
+        assertEquals("nick42", helper.getUserNickname(helper.resolveId("user42")))
+        assertSchemaMatchesFresh(helper)
+        helper.close()
+    }
+
+    @Test
+    fun v6EncodesAvatarsAndKeepsUnreadableOnes() {
+        createOldDatabase(6, CREATE_V5, INSERT_V5, afterCreate = CREATE_V6_INDEX) { i ->
+            // Every tenth avatar is a value the upgrade cannot interpret
+            val avatar = if (i % 10 == 0) "https://example.com/$i.png" else "content://media/external/images/$i"
+            arrayOf("user$i", "pw$i", "nick$i", avatar, i.toLong())
+        }
+
+        val helper = upgrade("6 -> current")
+        assertEquals((ROWS - ROWS / 10).toLong(),
+            count(helper, "SELECT COUNT(*) FROM users WHERE avatar_uri LIKE 'c:content://%'"))
+        assertEquals((ROWS / 10).toLong(),
+            count(helper, "SELECT COUNT(*) FROM users WHERE avatar_uri LIKE 'https://example.com/%'"))
+        assertSchemaMatchesFresh(helper)
+        helper.close()
+    }
+
+    @Test
+    fun v7BuildsSearchIndex() {
+        createOldDatabase(7, CREATE_V5, INSERT_V5, afterCreate = CREATE_V6_INDEX) { i ->
+            // Every tenth nickname is Chinese and gets pinyin initials
+            val nickname = if (i % 10 == 0) "张三$i" else "nick$i"
+            arrayOf("user$i", "pw$i", nickname, "r:$i", i.toLong())
+        }
+
+        val helper = upgrade("7 -> current")
+        assertEquals(ROWS.toLong(), count(helper, "SELECT COUNT(*) FROM users"))
+        assertEquals((ROWS / 10).toLong(), count(helper, "SELECT COUNT(*) FROM users WHERE nickname_initials = 'zs'"))
+        assertEquals(ROWS.toLong(), count(helper, "SELECT COUNT(*) FROM users_search"))
+        assertSchemaMatchesFresh(helper)
+
+        val byName = helper.searchAccounts("user${ROWS - 1}", -1L, Long.MAX_VALUE, Long.MAX_VALUE, 50)
+        assertEquals(listOf("user${ROWS - 1}"), byName.map { it.username })
+        val byInitials = helper.searchAccounts("zs", -1L, Long.MAX_VALUE, Long.MAX_VALUE, 50)
+        assertEquals(50, byInitials.size)
+        assertEquals("user${ROWS - 10}", byInitials[0].username)
+
+        // The triggers keep the index in step with later edits
+        val id = helper.resolveId("user5")
+        helper.updateUserNickname(id, "李四")
+        assertEquals(0L, count(helper, "SELECT COUNT(*) FROM users_search WHERE users_search MATCH 'nick5'"))
+        assertEquals(1L, count(helper, "SELECT COUNT(*) FROM users_search WHERE users_search MATCH 'ls'" +
+            " AND docid = $id"))
+        helper.close()
+    }
+
+    private fun createOldDatabase(
+        version: Int,
+        createSql: String,
+        insertSql: String,
+        afterCreate: String? = null,
+        row: (Int) -> Array<Any?>
+    ) {
+        val db = SQLiteDatabase.openOrCreateDatabase(context.getDatabasePath(TEST_DB), null)
+        db.execSQL(createSql)
+        afterCreate?.let { db.execSQL(it) }
+        val insert = db.compileStatement(insertSql)
+        db.beginTransaction()
+        try {
+            for (i in 0 until ROWS) {
+                insert.clearBindings()
+                row(i).forEachIndexed { index, value ->
+                    when (value) {
+                        null -> insert.bindNull(index + 1)
+                        is Long -> insert.bindLong(index + 1, value)
+                        else -> insert.bindString(index + 1, value.toString())
+                    }
+                }
+                insert.executeInsert()
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+        insert.close()
+        db.version = version
+        db.close()
+    }
+
+    private fun upgrade(path: String): UserDatabaseHelper {
+        val helper = UserDatabaseHelper(context, TEST_DB)
+        val start = SystemClock.elapsedRealtime()
+        helper.writableDatabase
+        Log.i("DbMigration", "$path with $ROWS rows: ${SystemClock.elapsedRealtime() - start}ms")
+        return helper
+    }
+
+    private fun count(helper: UserDatabaseHelper, sql: String): Long =
+        helper.readableDatabase.compileStatement(sql).use { it.simpleQueryForLong() }
+
+    private fun assertSchemaMatchesFresh(upgraded: UserDatabaseHelper) {
+        val fresh = UserDatabaseHelper(context, FRESH_DB)
+        assertEquals(schema(fresh.readableDatabase), schema(upgraded.readableDatabase))
+        fresh.close()
+    }
+
+    // Column names and types of the users table, the names of its indexes, and the search
+    // index tables and triggers
+    private fun schema(db: SQLiteDatabase): List<String> {
+        val result = ArrayList<String>()
+        db.rawQuery("PRAGMA table_info(users)", null).use {
+            while (it.moveToNext()) result.add(it.getString(1) + " " + it.getString(2))
+        }
+        db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'index' AND tbl_name = 'users'" +
+            " AND name NOT LIKE 'sqlite_autoindex%' ORDER BY name", null).use {
+            while (it.moveToNext()) result.add("index " + it.getString(0))
+        }
+        db.rawQuery("SELECT type, name FROM sqlite_master WHERE name LIKE 'users_search%'" +
+            " AND type IN ('table', 'trigger') ORDER BY name", null).use {
+            while (it.moveToNext()) result.add(it.getString(0) + " " + it.getString(1))
+        }
+        return result
+    }
+
+    companion object {
+        private const val TEST_DB = "migration_test.db"
+        private const val FRESH_DB = "migration_fresh.db"
+        private const val ROWS = 100_000
+
+        private const val CREATE_V5 =
+            "CREATE TABLE users(id INTEGER PRIMARY KEY AUTOINCREMENT, username TEXT UNIQUE," +
+                " password TEXT, nickname TEXT, avatar_uri TEXT, last_login INTEGER)"
+        private const val INSERT_V5 =
+            "INSERT INTO users(username, password, nickname, avatar_uri, last_login) VALUES (?, ?, ?, ?, ?)"
+        private const val CREATE_V6_INDEX =
+            "CREATE INDEX idx_users_last_login ON users(last_login DESC, id DESC, username, nickname, avatar_uri)"
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.myapp
+
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Fills the table with ACCOUNTS rows and checks that a search page, broad or narrow,
+ * comes back newest login first. The per-query page time goes to the "DbSearch" tag;
+ * only the ordering and page sizes are asserted.
+ */
+@RunWith(AndroidJUnit4::class)
+class UserSearchLatencyTest {
+
+    private val context = InstrumentationRegistry.getInstrumentation().targetContext
+    private lateinit var dbHelper: UserDatabaseHelper
+
+    @Before
+    fun setUp() {
+        context.deleteDatabase(TEST_DB)
+        dbHelper = UserDatabaseHelper(context, TEST_DB)
+        val nicknames = arrayOf("张三", "李四", "王五", "赵六")
+        for (start in 0 until ACCOUNTS step 500) {
+            dbHelper.insertUsers((start until start + 500).map { i ->
+                UserDatabaseHelper.NewUser("user$i", "hash", nicknames[i % nicknames.size] + i, lastLogin = i.toLong())
+            })
+        }
+    }
+
+    @After
+    fun tearDown() {
+        dbHelper.close()
+        context.deleteDatabase(TEST_DB)
+    }
+
+    @Test
+    fun searchPageIsNewestFirst() {
+        for (query in arrayOf("u", "user", "user4999", "张", "zs")) {
+            dbHelper.searchAccounts(query, -1L, Long.MAX_VALUE, Long.MAX_VALUE, PAGE_SIZE)
+            val micros = medianMicros(SAMPLES) { dbHelper.searchAccounts(query, -1L, Long.MAX_VALUE, Long.MAX_VALUE, PAGE_SIZE) }
+            Log.i("DbSearch", "query=\"$query\" accounts=$ACCOUNTS page=${micros}us")
+        }
+
+        val page = dbHelper.searchAccounts("user", -1L, Long.MAX_VALUE, Long.MAX_VALUE, PAGE_SIZE)
+        assertEquals(PAGE_SIZE, page.size)
+        assertEquals("user${ACCOUNTS - 1}", page[0].username)
+        // Prefix match: user4999 itself plus user49990..user49999, newest first
+        val narrow = dbHelper.searchAccounts("user4999", -1L, Long.MAX_VALUE, Long.MAX_VALUE, PAGE_SIZE)
+        assertEquals(11, narrow.size)
+        assertEquals("user4999", narrow.last().username)
+    }
+
+    companion object {
+        private const val TEST_DB = "search_test.db"
+        private const val ACCOUNTS = 50_000
+        private const val PAGE_SIZE = 50
+        private const val SAMPLES = 21
+    }
+}
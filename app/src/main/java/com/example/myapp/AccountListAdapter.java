@@ -0,0 +1,84 @@
+package com.example.myapp;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
+
+public class AccountListAdapter extends ListAdapter<UserDatabaseHelper.UserProfile, AccountListAdapter.ViewHolder> {
+
+    public interface OnSwitchListener {
+        void onSwitch(UserDatabaseHelper.UserProfile user);
+    }
+
+    private static final DiffUtil.ItemCallback<UserDatabaseHelper.UserProfile> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<UserDatabaseHelper.UserProfile>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull UserDatabaseHelper.UserProfile oldItem,
+                                               @NonNull UserDatabaseHelper.UserProfile newItem) {
+                    return oldItem.getId() == newItem.getId();
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull UserDatabaseHelper.UserProfile oldItem,
+                                                  @NonNull UserDatabaseHelper.UserProfile newItem) {
+                    return oldItem.equals(newItem);
+                }
+            };
+
+    private final OnSwitchListener switchListener;
+
+    public AccountListAdapter(OnSwitchListener switchListener) {
+        super(DIFF_CALLBACK);
+        this.switchListener = switchListener;
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View itemView = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_account, parent, false);
+        return new ViewHolder(itemView);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        final UserDatabaseHelper.UserProfile user = getItem(position);
+        holder.tvNickname.setText(user.getNickname());
+        holder.tvUsername.setText(user.getUsername());
+        holder.btnSwitch.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                switchListener.onSwitch(user);
+            }
+        });
+        AvatarLoader.getInstance(holder.itemView.getContext()).load(holder.ivAvatar, user.getAvatarUri());
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull ViewHolder holder) {
+        // Don't decode an avatar for a row that has scrolled away
+        AvatarLoader.getInstance(holder.itemView.getContext()).cancel(holder.ivAvatar);
+    }
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final ImageView ivAvatar;
+        final TextView tvNickname;
+        final TextView tvUsername;
+        final Button btnSwitch;
+
+        ViewHolder(@NonNull View itemView) {
+            super(itemView);
+            ivAvatar = itemView.findViewById(R.id.ivItemAvatar);
+            tvNickname = itemView.findViewById(R.id.tvItemNickname);
+            tvUsername = itemView.findViewById(R.id.tvItemUsername);
+            btnSwitch = itemView.findViewById(R.id.btnItemSwitch);
+        }
+    }
+}
@@ -1,51 +1,95 @@
 package com.example.myapp;
 
-import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
-import android.graphics.Color;
-import android.net.Uri;
 import android.os.Bundle;
-import android.view.Gravity;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.View;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.ImageView;
-import android.widget.LinearLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class AccountManagerActivity extends AppCompatActivity {
 
-    private LinearLayout llAccountList;
+    private static final int PAGE_SIZE = 50;
+    // Wait for a pause in typing before querying the search index
+    private static final long SEARCH_DELAY_MS = 150;
+    
+    private RecyclerView rvAccountList;
+    private LinearLayoutManager accountLayoutManager;
+    private AccountListAdapter accountAdapter;
     private Button btnAddAccount;
+    private EditText etAccountSearch;
     
     // Current user UI
     private TextView tvCurrentNickname;
     private TextView tvCurrentUsername;
     private ImageView ivCurrentAvatar;
 
-    private UserDatabaseHelper dbHelper;
+    private UserRepository repository;
+    private SessionManager session;
+    private long currentUserId;
     private String currentUsername;
+    
+    // Keyset of the last loaded row; the next page starts right after it
+    private long nextLastLogin = Long.MAX_VALUE;
+    private long nextId = Long.MAX_VALUE;
+    private boolean hasMoreAccounts = true;
+    private boolean loadingPage = false;
+    // Bumped whenever the list restarts, so pages for an older query are dropped
+    private int pageGeneration = 0;
+    private String searchQuery = "";
+    private final Handler searchHandler = new Handler(Looper.getMainLooper());
+    private final Runnable searchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            loadAccountList();
+        }
+    };
+    private final List<UserDatabaseHelper.UserProfile> loadedAccounts = new ArrayList<>();
+    // Rows changed elsewhere and not yet read back
+    private final Set<Long> staleAccounts = new LinkedHashSet<>();
+    private final Runnable refreshStaleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refreshStaleAccounts();
+        }
+    };
+    private UserChangeTracker.Subscription userChanges;
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_account_manager);
 
-        dbHelper = new UserDatabaseHelper(this);
+        repository = UserRepository.getInstance(this);
         
         // Get current user
-        SharedPreferences sp = getSharedPreferences("AppPrefs", Context.MODE_PRIVATE);
-        currentUsername = sp.getString("current_user", "");
+        session = SessionManager.getInstance(this);
+        currentUserId = session.getCurrentUserId();
+        currentUsername = session.getCurrentUser();
 
         initViews();
+        initAccountList();
         loadCurrentUserInfo();
         loadAccountList();
+        observeUserChanges();
         
         btnAddAccount.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -65,21 +109,26 @@ public class AccountManagerActivity extends AppCompatActivity {
     }
 
     private void initViews() {
-        llAccountList = findViewById(R.id.llAccountList);
+        rvAccountList = findViewById(R.id.rvAccountList);
         btnAddAccount = findViewById(R.id.btnAddAccount);
+        etAccountSearch = findViewById(R.id.etAccountSearch);
         tvCurrentNickname = findViewById(R.id.tvCurrentNickname);
         tvCurrentUsername = findViewById(R.id.tvCurrentUsername);
         ivCurrentAvatar = findViewById(R.id.ivCurrentAvatar);
     }
     
     private void loadCurrentUserInfo() {
-        if (!currentUsername.isEmpty()) {
+        if (currentUserId > 0) {
             tvCurrentUsername.setText(currentUsername);
-            String nickname = dbHelper.getUserNickname(currentUsername);
-            tvCurrentNickname.setText(nickname);
-            
-            String avatarUriStr = dbHelper.getUserAvatar(currentUsername);
-            setAvatar(ivCurrentAvatar, avatarUriStr);
+            tvCurrentNickname.setText(currentUsername);
+            repository.getUserProfile(currentUserId, new UserRepository.Callback<UserDatabaseHelper.UserProfile>() {
+                @Override
+                public void onResult(UserDatabaseHelper.UserProfile profile) {
+                    if (isDestroyed() || profile == null) return;
+                    tvCurrentNickname.setText(profile.getNickname());
+                    AvatarLoader.getInstance(AccountManagerActivity.this).load(ivCurrentAvatar, profile.getAvatarUri());
+                }
+            });
             
             // Update last login time now or when they actually logged in? 
             // Better to update when they actually switch or login.
@@ -89,115 +138,174 @@ public class AccountManagerActivity extends AppCompatActivity {
         }
     }
 
+    private void initAccountList() {
+        accountLayoutManager = new LinearLayoutManager(this);
+        rvAccountList.setLayoutManager(accountLayoutManager);
+        accountAdapter = new AccountListAdapter(new AccountListAdapter.OnSwitchListener() {
+            @Override
+            public void onSwitch(UserDatabaseHelper.UserProfile user) {
+                switchAccount(user);
+            }
+        });
+        rvAccountList.setAdapter(accountAdapter);
+        etAccountSearch.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                String query = s.toString().trim();
+                if (query.equals(searchQuery)) return;
+                searchQuery = query;
+                searchHandler.removeCallbacks(searchRunnable);
+                searchHandler.postDelayed(searchRunnable, SEARCH_DELAY_MS);
+            }
+        });
+        rvAccountList.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                // Fetch the next page once the user is within half a page of the end
+                int lastVisible = accountLayoutManager.findLastVisibleItemPosition();
+                if (dy > 0 && lastVisible >= accountAdapter.getItemCount() - PAGE_SIZE / 2) {
+                    loadNextAccountPage();
+                }
+            }
+        });
+    }
+
     private void loadAccountList() {
-        llAccountList.removeAllViews();
-        List<UserDatabaseHelper.UserInfo> users = dbHelper.getAllUsers();
+        nextLastLogin = Long.MAX_VALUE;
+        nextId = Long.MAX_VALUE;
+        hasMoreAccounts = true;
+        loadingPage = false;
+        pageGeneration++;
+        loadNextAccountPage();
+    }
+    
+    private void loadNextAccountPage() {
+        if (!hasMoreAccounts || loadingPage) return;
+        loadingPage = true;
+        final boolean firstPage = nextId == Long.MAX_VALUE;
+        final int generation = pageGeneration;
         
-        for (final UserDatabaseHelper.UserInfo user : users) {
-            // Skip current user in the switch list
-            if (user.getUsername().equals(currentUsername)) continue;
-            
-            View itemView = createAccountItemView(user);
-            llAccountList.addView(itemView);
+        // The current user is excluded in SQL, so every returned row is shown
+        UserRepository.Callback<List<UserDatabaseHelper.UserProfile>> callback =
+                new UserRepository.Callback<List<UserDatabaseHelper.UserProfile>>() {
+                    @Override
+                    public void onResult(List<UserDatabaseHelper.UserProfile> page) {
+                        if (generation != pageGeneration) return;
+                        loadingPage = false;
+                        if (isDestroyed()) return;
+                        onAccountPageLoaded(page, firstPage);
+                    }
+                };
+        if (searchQuery.isEmpty()) {
+            repository.getAccountsPage(currentUserId, nextLastLogin, nextId, PAGE_SIZE, callback);
+        } else {
+            repository.searchAccounts(searchQuery, currentUserId, nextLastLogin, nextId, PAGE_SIZE, callback);
         }
     }
     
-    private View createAccountItemView(final UserDatabaseHelper.UserInfo user) {
-        LinearLayout layout = new LinearLayout(this);
-        layout.setOrientation(LinearLayout.HORIZONTAL);
-        layout.setPadding(40, 30, 40, 30);
-        layout.setGravity(Gravity.CENTER_VERTICAL);
-        layout.setBackgroundColor(Color.WHITE);
-        
-        // Avatar
-        ImageView ivAvatar = new ImageView(this);
-        LinearLayout.LayoutParams params = new LinearLayout.LayoutParams(120, 120);
-        ivAvatar.setLayoutParams(params);
-        ivAvatar.setScaleType(ImageView.ScaleType.CENTER_CROP);
-        // Simple circle mask or shape could be applied here
-        ivAvatar.setBackgroundResource(R.drawable.circle_shape); 
-        ivAvatar.setPadding(2,2,2,2);
-        setAvatar(ivAvatar, user.getAvatarUri());
-        layout.addView(ivAvatar);
-        
-        // Text Info
-        LinearLayout textLayout = new LinearLayout(this);
-        textLayout.setOrientation(LinearLayout.VERTICAL);
-        LinearLayout.LayoutParams textParams = new LinearLayout.LayoutParams(0, LinearLayout.LayoutParams.WRAP_CONTENT, 1.0f);
-        textParams.setMargins(40, 0, 0, 0);
-        textLayout.setLayoutParams(textParams);
-        
-        TextView tvNickname = new TextView(this);
-        tvNickname.setText(user.getNickname());
-        tvNickname.setTextSize(16);
-        tvNickname.setTextColor(Color.BLACK);
-        tvNickname.getPaint().setFakeBoldText(true);
-        textLayout.addView(tvNickname);
-        
-        TextView tvUsername = new TextView(this);
-        tvUsername.setText(user.getUsername());
-        tvUsername.setTextSize(14);
-        tvUsername.setTextColor(Color.GRAY);
-        textLayout.addView(tvUsername);
-        
-        layout.addView(textLayout);
+    private void onAccountPageLoaded(List<UserDatabaseHelper.UserProfile> page, boolean firstPage) {
+        if (!page.isEmpty()) {
+            UserDatabaseHelper.UserProfile last = page.get(page.size() - 1);
+            nextLastLogin = last.getLastLogin();
+            nextId = last.getId();
+        }
+        hasMoreAccounts = page.size() == PAGE_SIZE;
         
-        // Switch Button
-        Button btnSwitch = new Button(this);
-        btnSwitch.setText("切换");
-        btnSwitch.setTextSize(12);
-        btnSwitch.setTextColor(Color.parseColor("#2196F3"));
-        btnSwitch.setBackgroundColor(Color.TRANSPARENT);
-        btnSwitch.setOnClickListener(new View.OnClickListener() {
+        if (firstPage) {
+            loadedAccounts.clear();
+        }
+        loadedAccounts.addAll(page);
+        // DiffUtil works out which rows actually changed, so a reload only rebinds those
+        accountAdapter.submitList(new ArrayList<>(loadedAccounts));
+    }
+    
+    // Edits made elsewhere (another screen, an import finishing) only re-read the row they touched
+    private void observeUserChanges() {
+        userChanges = repository.observeUsers(new UserChangeTracker.Observer() {
             @Override
-            public void onClick(View v) {
-                switchAccount(user.getUsername());
+            public void onUserChanged(UserChangeTracker.UserChange change) {
+                if (!change.affects(UserChangeTracker.NICKNAME | UserChangeTracker.AVATAR)) return;
+                if (change.getUserId() == currentUserId) {
+                    loadCurrentUserInfo();
+                } else {
+                    refreshAccount(change.getUserId());
+                }
             }
         });
-        layout.addView(btnSwitch);
-        
-        // Separator line logic could be added here
-        
-        return layout;
     }
     
-    private void setAvatar(ImageView imageView, String avatarUriStr) {
-        if (avatarUriStr != null && !avatarUriStr.isEmpty()) {
-            try {
-                 if (avatarUriStr.startsWith("android.resource")) {
-                    try {
-                        imageView.setImageResource(Integer.parseInt(avatarUriStr.split("/")[1])); 
-                    } catch (Exception e) {
-                         imageView.setImageURI(Uri.parse(avatarUriStr));
-                    }
-                } else {
-                    imageView.setImageURI(Uri.parse(avatarUriStr));
+    // A commit's change events arrive one by one in the same turn of the main loop; the
+    // rows they name are read back together in one query after the last of them
+    private void refreshAccount(long userId) {
+        if (indexOfAccount(userId) < 0) return;
+        if (staleAccounts.add(userId) && staleAccounts.size() == 1) {
+            searchHandler.post(refreshStaleRunnable);
+        }
+    }
+    
+    private void refreshStaleAccounts() {
+        List<Long> userIds = new ArrayList<>(staleAccounts);
+        staleAccounts.clear();
+        repository.getUserProfiles(userIds, new UserRepository.Callback<Map<Long, UserDatabaseHelper.UserProfile>>() {
+            @Override
+            public void onResult(Map<Long, UserDatabaseHelper.UserProfile> profiles) {
+                if (isDestroyed()) return;
+                boolean changed = false;
+                for (UserDatabaseHelper.UserProfile profile : profiles.values()) {
+                    // Look the row up again: a page may have been reloaded while this was in flight
+                    int index = indexOfAccount(profile.getId());
+                    if (index < 0) continue;
+                    loadedAccounts.set(index, profile);
+                    changed = true;
+                }
+                if (changed) {
+                    accountAdapter.submitList(new ArrayList<>(loadedAccounts));
                 }
-            } catch (Exception e) {
-                imageView.setImageResource(android.R.drawable.sym_def_app_icon);
             }
-        } else {
-            imageView.setImageResource(android.R.drawable.sym_def_app_icon);
+        });
+    }
+    
+    private int indexOfAccount(long userId) {
+        for (int i = 0; i < loadedAccounts.size(); i++) {
+            if (loadedAccounts.get(i).getId() == userId) return i;
         }
+        return -1;
     }
     
-    private void switchAccount(String targetUsername) {
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        searchHandler.removeCallbacks(searchRunnable);
+        searchHandler.removeCallbacks(refreshStaleRunnable);
+        if (userChanges != null) {
+            userChanges.unsubscribe();
+        }
+        AvatarLoader.getInstance(this).cancelAll(this);
+    }
+    
+    private void switchAccount(UserDatabaseHelper.UserProfile target) {
+        String targetUsername = target.getUsername();
+        
         // Update login state
-        SharedPreferences sp = getSharedPreferences("AppPrefs", Context.MODE_PRIVATE);
-        sp.edit()
-          .putBoolean("is_logged_in", true)
-          .putString("current_user", targetUsername)
-          .putString("last_username", targetUsername)
-          .apply();
+        session.login(target.getId(), targetUsername);
           
         // Update last login time
-        dbHelper.updateLastLogin(targetUsername);
+        repository.updateLastLogin(target.getId());
           
         Toast.makeText(this, "已切换到 " + targetUsername, Toast.LENGTH_SHORT).show();
         
         // Go to Personal Center directly, clearing back stack to avoid confusion
         Intent intent = new Intent(AccountManagerActivity.this, PersonalCenterActivity.class);
-        intent.putExtra("USERNAME", targetUsername);
+        intent.putExtra(PersonalCenterActivity.EXTRA_USER_ID, target.getId());
+        intent.putExtra(PersonalCenterActivity.EXTRA_PROFILE, target);
         intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
         startActivity(intent);
         finish();
@@ -1,30 +1,93 @@
 package com.example.myapp
 
-import android.content.Context
+import android.app.Activity
 import android.content.Intent
-import android.content.SharedPreferences
 import android.os.Bundle
+import android.os.Process
+import android.os.SystemClock
+import android.util.Log
 import android.view.Gravity
+import android.view.ViewTreeObserver
 import android.widget.Button
 import android.widget.LinearLayout
 import android.widget.TextView
-import androidx.appcompat.app.AppCompatActivity
 
-class AuthActivity : AppCompatActivity() {
+// Entry point for App B, usually started into a cold process. Its start path touches only
+// what Application.onCreate already loaded, the session and the consents: the screen is
+// built in code on a plain Activity (no AppCompat decor to inflate), and the profile is
+// read from the database only once the first frame is on screen.
+// It stays in the main process: SessionManager and ConsentStore are in-memory singletons
+// per process, so a separate process would miss logins made in App A and hand
+// QuickAuthProvider consents it never sees.
+class AuthActivity : Activity() {
 
-    private lateinit var dbHelper: UserDatabaseHelper
-    private lateinit var sharedPreferences: SharedPreferences
+    companion object {
+        private const val TAG = "AuthActivity"
+
+        // SystemClock.elapsedRealtime() of the caller when it started this Activity. That
+        // clock is shared by all processes, so the handoff to our first frame can be logged.
+        const val EXTRA_LAUNCH_ELAPSED = "LAUNCH_ELAPSED_REALTIME"
+    }
+
+    // Not needed for the first frame; built when the profile is first read
+    private val repository by lazy { UserRepository.getInstance(this) }
+    private lateinit var session: SessionManager
     
     // Request code for starting Login Activity
     private val REQUEST_LOGIN = 100
 
+    private var firstFrameDrawn = false
+    private val afterFirstFrame = ArrayList<() -> Unit>()
+
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
         
-        dbHelper = UserDatabaseHelper(this)
-        sharedPreferences = getSharedPreferences("AppPrefs", Context.MODE_PRIVATE)
+        session = SessionManager.getInstance(this)
         
         checkLoginAndShowUI()
+        if (!isFinishing) watchFirstFrame()
+        // Rebuild the screen whenever the user logs in, out or switches account in App A
+        session.addListener(sessionListener)
+    }
+    
+    private val sessionListener = SessionManager.Listener { checkLoginAndShowUI() }
+    
+    private fun watchFirstFrame() {
+        val decorView = window.decorView
+        decorView.viewTreeObserver.addOnDrawListener(object : ViewTreeObserver.OnDrawListener {
+            override fun onDraw() {
+                // Listeners cannot be removed from inside onDraw
+                val listener = this
+                decorView.post {
+                    if (firstFrameDrawn) return@post
+                    firstFrameDrawn = true
+                    decorView.viewTreeObserver.removeOnDrawListener(listener)
+                    logFirstFrame()
+                    afterFirstFrame.forEach { it() }
+                    afterFirstFrame.clear()
+                }
+            }
+        })
+    }
+    
+    private fun runAfterFirstFrame(action: () -> Unit) {
+        if (firstFrameDrawn) action() else afterFirstFrame.add(action)
+    }
+    
+    private fun logFirstFrame() {
+        val now = SystemClock.elapsedRealtime()
+        val launched = intent.getLongExtra(EXTRA_LAUNCH_ELAPSED, 0L)
+        if (launched <= 0) return
+        // Process start lies after the launch only when this start had to create the process
+        val processStart = Process.getStartElapsedRealtime()
+        val cold = processStart >= launched
+        Log.i(TAG, "Handoff to first frame: ${now - launched}ms (" + (if (cold) "cold" else "warm") + " process)")
+        if (cold) Log.i(TAG, "Process start to first frame: ${now - processStart}ms")
+    }
+    
+    override fun onDestroy() {
+        super.onDestroy()
+        session.removeListener(sessionListener)
     }
     
     override fun onResume() {
@@ -34,16 +97,34 @@ class AuthActivity : AppCompatActivity() {
     }
     
     private fun checkLoginAndShowUI() {
-        val isLoggedIn = sharedPreferences.getBoolean("is_logged_in", false)
-        val currentUser = sharedPreferences.getString("current_user", "")
+        val currentUser = session.currentUser
         
-        if (!isLoggedIn || currentUser.isNullOrEmpty()) {
+        if (!session.isLoggedIn) {
              showLoginRequiredUI()
-        } else {
+        } else if (!returnExistingConsent()) {
              showAuthUI(currentUser)
         }
     }
     
+    // A caller approved earlier for this account gets its answer at once, with neither
+    // the consent screen nor a database read
+    private fun returnExistingConsent(): Boolean {
+        val caller = callingActivity?.packageName ?: return false
+        val grant = ConsentStore.getInstance(this)
+            .findForPackage(caller, ConsentStore.SCOPE_PROFILE) ?: return false
+        val resultIntent = Intent()
+        resultIntent.putExtra("AUTH_USERNAME", grant.username)
+        resultIntent.putExtra("AUTH_NICKNAME", grant.nickname)
+        if (grant.covers(ConsentStore.SCOPE_AVATAR)) {
+            resultIntent.putExtra(QuickAuthProvider.KEY_AVATAR_VERSION, grant.avatarVersion)
+        }
+        setResult(RESULT_OK, resultIntent)
+        finish()
+        val launched = intent.getLongExtra(EXTRA_LAUNCH_ELAPSED, 0L)
+        if (launched > 0) Log.i(TAG, "Handoff answered without UI: ${SystemClock.elapsedRealtime() - launched}ms")
+        return true
+    }
+    
     private fun showLoginRequiredUI() {
         val layout = LinearLayout(this)
         layout.orientation = LinearLayout.VERTICAL
@@ -111,10 +192,11 @@ class AuthActivity : AppCompatActivity() {
         tvMessage.setPadding(0, 30, 0, 50)
         layout.addView(tvMessage)
         
-        val nickname = dbHelper.getUserNickname(currentUser)
+        // Shown with the username until the profile arrives from the background read
+        var nickname = currentUser
         
         val tvUser = TextView(this)
-        tvUser.text = "将使用当前登录账号:\n$nickname ($currentUser)"
+        tvUser.text = "将使用当前登录账号:\n$currentUser"
         tvUser.textSize = 18f
         tvUser.setTextColor(0xFF2196F3.toInt())
         tvUser.gravity = Gravity.CENTER
@@ -125,15 +207,63 @@ class AuthActivity : AppCompatActivity() {
         btnAuth.text = "确认授权"
         btnAuth.setBackgroundColor(0xFF2196F3.toInt())
         btnAuth.setTextColor(0xFFFFFFFF.toInt())
-        btnAuth.setOnClickListener {
+        var profileShown: UserDatabaseHelper.UserProfile? = null
+        var profileLoaded = false
+        var confirmed = false
+        val completeAuth = {
+            // Remembered for this caller, so later quick logins need no UI at all
+            val caller = callingActivity?.packageName
+            val profile = profileShown
             val resultIntent = Intent()
+            if (caller != null && profile != null) {
+                val digest = ConsentStore.signingDigest(this, caller)
+                if (digest != null) {
+                    val consents = ConsentStore.getInstance(this)
+                    consents.grant(caller, digest, profile, ConsentStore.SCOPE_PROFILE or ConsentStore.SCOPE_AVATAR)
+                    // The avatar itself is fetched through QuickAuthProvider.openFile
+                    consents.find(caller, digest, ConsentStore.SCOPE_AVATAR)?.let {
+                        resultIntent.putExtra(QuickAuthProvider.KEY_AVATAR_VERSION, it.avatarVersion)
+                    }
+                }
+            }
             resultIntent.putExtra("AUTH_USERNAME", currentUser)
             resultIntent.putExtra("AUTH_NICKNAME", nickname)
             setResult(RESULT_OK, resultIntent)
             finish()
         }
+        // Usable at once; a tap before the profile arrives completes when it does
+        btnAuth.setOnClickListener {
+            if (profileLoaded) {
+                completeAuth()
+            } else {
+                confirmed = true
+                btnAuth.isEnabled = false
+            }
+        }
         layout.addView(btnAuth)
         
+        val showProfile = { userId: Long ->
+            repository.getUserProfile(userId) { profile ->
+                if (profile != null) {
+                    nickname = profile.nickname
+                    profileShown = profile
+                }
+                profileLoaded = true
+                tvUser.text = "将使用当前登录账号:\n$nickname ($currentUser)"
+                if (confirmed && !isFinishing) completeAuth()
+            }
+        }
+        // The database is opened only after the consent screen is on screen
+        runAfterFirstFrame {
+            val userId = session.currentUserId
+            if (userId > 0) {
+                showProfile(userId)
+            } else {
+                // A session carried over from the AppPrefs keys
+                repository.resolveUserId(currentUser) { id -> showProfile(id) }
+            }
+        }
+        
         // Option to switch account or cancel
         val btnCancel = Button(this)
         btnCancel.text = "取消 / 切换账号"
@@ -154,8 +284,7 @@ class AuthActivity : AppCompatActivity() {
         super.onActivityResult(requestCode, resultCode, data)
         if (requestCode == REQUEST_LOGIN) {
             if (resultCode == RESULT_OK) {
-                // Login successful, refresh UI to show auth screen
-                checkLoginAndShowUI()
+                // Login successful; sessionListener has already switched to the auth screen
             } else {
                 // User cancelled login
                 // Stay on "Login Required" screen or finish? 
@@ -0,0 +1,144 @@
+package com.example.myapp
+
+import android.content.ComponentCallbacks2
+import android.content.Context
+import android.content.res.Configuration
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.os.Build
+import android.util.LruCache
+import java.io.File
+import java.io.FileOutputStream
+import java.security.MessageDigest
+
+// Two tiers of avatar thumbnails keyed by the stored avatar URI: a bounded in-memory
+// LRU of bitmaps and pre-scaled files under cacheDir, so an avatar is decoded from
+// its source at most once. Disk methods do I/O and must be called off the main thread.
+class AvatarCache private constructor(context: Context) : ComponentCallbacks2 {
+
+    companion object {
+        private const val DISK_DIR = "avatar_thumbs"
+        private const val MAX_DISK_BYTES = 10L * 1024 * 1024
+        private const val THUMBNAIL_QUALITY = 90
+
+        // Largest avatar view in the app is 60dp
+        private const val THUMBNAIL_SIZE_DP = 64
+
+        @Volatile
+        private var instance: AvatarCache? = null
+
+        @JvmStatic
+        fun getInstance(context: Context): AvatarCache {
+            return instance ?: synchronized(this) {
+                instance ?: AvatarCache(context.applicationContext).also { instance = it }
+            }
+        }
+    }
+
+    val thumbnailSizePx: Int = (THUMBNAIL_SIZE_DP * context.resources.displayMetrics.density).toInt()
+
+    private val appContext = context
+
+    // Looking up cacheDir may create it, so it waits for the first disk method
+    private val diskDir by lazy { File(appContext.cacheDir, DISK_DIR) }
+
+    // An eighth of the heap, measured in bytes
+    private val memory = object : LruCache<String, Bitmap>((Runtime.getRuntime().maxMemory() / 8).toInt()) {
+        override fun sizeOf(key: String, value: Bitmap): Int = value.byteCount
+    }
+
+    init {
+        context.registerComponentCallbacks(this)
+    }
+
+    fun getFromMemory(avatarUri: String): Bitmap? = memory.get(avatarUri)
+
+    fun putInMemory(avatarUri: String, bitmap: Bitmap) {
+        memory.put(avatarUri, bitmap)
+    }
+
+    fun getFromDisk(avatarUri: String): Bitmap? {
+        val file = diskFile(avatarUri)
+        if (!file.exists()) return null
+        val bitmap = BitmapFactory.decodeFile(file.path)
+        if (bitmap != null) {
+            // Touch the file so disk trimming evicts least recently used thumbnails first
+            file.setLastModified(System.currentTimeMillis())
+        }
+        return bitmap
+    }
+
+    // The cached thumbnail file itself, for handing out as a file descriptor
+    fun getDiskFile(avatarUri: String): File? {
+        val file = diskFile(avatarUri)
+        if (!file.exists()) return null
+        file.setLastModified(System.currentTimeMillis())
+        return file
+    }
+
+    fun putOnDisk(avatarUri: String, bitmap: Bitmap) {
+        if (!diskDir.exists() && !diskDir.mkdirs()) return
+        val file = diskFile(avatarUri)
+        val tmp = File(diskDir, file.name + ".tmp")
+        try {
+            FileOutputStream(tmp).use { bitmap.compress(thumbnailFormat(), THUMBNAIL_QUALITY, it) }
+            if (!tmp.renameTo(file)) tmp.delete()
+        } catch (e: Exception) {
+            tmp.delete()
+        }
+        trimDisk()
+    }
+
+    // Call whenever the image behind an avatar may have changed or is no longer used. Keyed
+    // by the ref's canonical encoding, as AvatarLoader caches it, whatever form was stored.
+    fun invalidate(ref: AvatarRef?) {
+        if (ref == null) return
+        val key = ref.encode()
+        memory.remove(key)
+        diskFile(key).delete()
+    }
+
+    override fun onTrimMemory(level: Int) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            memory.evictAll()
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+            || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+            || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            memory.trimToSize(memory.maxSize() / 2)
+        }
+    }
+
+    override fun onLowMemory() {
+        memory.evictAll()
+    }
+
+    override fun onConfigurationChanged(newConfig: Configuration) {
+    }
+
+    private fun diskFile(avatarUri: String): File {
+        val digest = MessageDigest.getInstance("SHA-1").digest(avatarUri.toByteArray())
+        val name = StringBuilder(digest.size * 2)
+        for (b in digest) {
+            name.append(String.format("%02x", b))
+        }
+        return File(diskDir, name.toString())
+    }
+
+    private fun trimDisk() {
+        val files = diskDir.listFiles() ?: return
+        var total = files.sumOf { it.length() }
+        if (total <= MAX_DISK_BYTES) return
+        files.sortBy { it.lastModified() }
+        for (file in files) {
+            if (total <= MAX_DISK_BYTES) break
+            total -= file.length()
+            file.delete()
+        }
+    }
+
+    @Suppress("DEPRECATION")
+    private fun thumbnailFormat(): Bitmap.CompressFormat {
+        return if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) Bitmap.CompressFormat.WEBP_LOSSY
+        else Bitmap.CompressFormat.WEBP
+    }
+}
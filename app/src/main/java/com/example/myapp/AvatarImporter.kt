@@ -0,0 +1,148 @@
+package com.example.myapp
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.net.Uri
+import android.os.Handler
+import android.os.Looper
+import android.util.Log
+import java.io.File
+import java.io.FileNotFoundException
+import java.io.FileOutputStream
+import java.util.UUID
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+// Copies picked gallery images into small JPEGs under filesDir/avatars, so displaying
+// an avatar never goes back to the original full-size photo or depends on a content
+// URI permission that expires with the picking Activity.
+class AvatarImporter private constructor(context: Context) {
+
+    fun interface Callback {
+        // Called on the main thread with the stored avatar reference, or null if the import failed
+        fun onImported(avatarRef: String?)
+    }
+
+    companion object {
+        private const val TAG = "AvatarImporter"
+        private const val AVATAR_DIR = "avatars"
+        private const val MAX_SIZE_PX = 512
+        private const val JPEG_QUALITY = 85
+        private const val PREFS_NAME = "avatar_import"
+        private const val KEY_MIGRATED = "external_avatars_migrated"
+
+        @Volatile
+        private var instance: AvatarImporter? = null
+
+        @JvmStatic
+        fun getInstance(context: Context): AvatarImporter {
+            return instance ?: synchronized(this) {
+                instance ?: AvatarImporter(context.applicationContext).also { instance = it }
+            }
+        }
+
+        @JvmStatic
+        fun avatarFile(context: Context, fileName: String): File =
+            File(File(context.filesDir, AVATAR_DIR), fileName)
+    }
+
+    private val appContext = context
+    private val avatarDir by lazy { File(appContext.filesDir, AVATAR_DIR) }
+    private val executor: ExecutorService = Executors.newSingleThreadExecutor()
+    private val mainHandler = Handler(Looper.getMainLooper())
+
+    fun importAvatar(userId: Long, source: Uri, callback: Callback) {
+        executor.execute {
+            val avatarRef = importAndStore(userId, source)
+            mainHandler.post { callback.onImported(avatarRef) }
+        }
+    }
+
+    // Rewrites avatar_uri rows that still point at external content. Rows whose source is
+    // gone for good are left untouched; any other failure leaves the flag unset, so the
+    // next start retries whatever is still external.
+    fun migrateExternalAvatarsOnce() {
+        executor.execute {
+            val prefs = appContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+            if (prefs.getBoolean(KEY_MIGRATED, false)) return@execute
+
+            val external = UserDatabaseHelper.getInstance(appContext).getExternalAvatars()
+            var migrated = 0
+            var gone = 0
+            for ((userId, ref) in external) {
+                val source = Uri.parse(ref.uri)
+                if (importAndStore(userId, source) != null) migrated++
+                else if (isSourceGone(source)) gone++
+            }
+            Log.i(TAG, "Migrated $migrated of ${external.size} external avatars, $gone gone")
+            if (migrated + gone == external.size) {
+                prefs.edit().putBoolean(KEY_MIGRATED, true).commit()
+            }
+        }
+    }
+
+    private fun importAndStore(userId: Long, source: Uri): String? {
+        val file = writeThumbnail(source) ?: return null
+        // Goes through the write queue like every other avatar change, so a pending
+        // update can neither hide the previous file nor overwrite this one later
+        val writeQueue = UserWriteQueue.getInstance(appContext)
+        val previous = AvatarRef.decode(writeQueue.getUserProfile(userId)?.avatarUri)
+        val avatarRef = AvatarRef.PrivateFile(file.name).encode()
+        var stored = false
+        writeQueue.updateAvatar(userId, avatarRef) { stored = it }
+        writeQueue.flush()
+        if (!stored) {
+            file.delete()
+            return null
+        }
+        AvatarCache.getInstance(appContext).invalidate(previous)
+        if (previous is AvatarRef.PrivateFile) {
+            avatarFile(appContext, previous.fileName).delete()
+        }
+        return avatarRef
+    }
+
+    // True when a retry cannot succeed: the document was deleted, our read grant on it was
+    // revoked, or it no longer decodes as an image. I/O errors and failed database writes
+    // are not covered and stay eligible for the next attempt.
+    private fun isSourceGone(source: Uri): Boolean {
+        return try {
+            val bounds = BitmapFactory.Options()
+            bounds.inJustDecodeBounds = true
+            val stream = appContext.contentResolver.openInputStream(source) ?: return true
+            stream.use { BitmapFactory.decodeStream(it, null, bounds) }
+            bounds.outWidth <= 0 || bounds.outHeight <= 0
+        } catch (e: FileNotFoundException) {
+            true
+        } catch (e: SecurityException) {
+            true
+        } catch (e: Exception) {
+            false
+        }
+    }
+
+    private fun writeThumbnail(source: Uri): File? {
+        if (!avatarDir.exists() && !avatarDir.mkdirs()) return null
+        val resolver = appContext.contentResolver
+        val file = File(avatarDir, UUID.randomUUID().toString() + ".jpg")
+        try {
+            val bounds = BitmapFactory.Options()
+            bounds.inJustDecodeBounds = true
+            resolver.openInputStream(source)?.use { BitmapFactory.decodeStream(it, null, bounds) }
+            if (bounds.outWidth <= 0 || bounds.outHeight <= 0) return null
+
+            val options = BitmapFactory.Options()
+            options.inSampleSize = AvatarLoader.calculateSampleSize(bounds.outWidth, bounds.outHeight, MAX_SIZE_PX)
+            val bitmap = resolver.openInputStream(source)?.use { BitmapFactory.decodeStream(it, null, options) }
+                ?: return null
+            FileOutputStream(file).use { bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, it) }
+            bitmap.recycle()
+            return file
+        } catch (e: Exception) {
+            Log.w(TAG, "Could not import avatar from $source", e)
+            file.delete()
+            return null
+        }
+    }
+}
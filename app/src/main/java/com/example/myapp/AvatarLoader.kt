@@ -0,0 +1,203 @@
+package com.example.myapp
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.graphics.Canvas
+import android.net.Uri
+import android.os.Handler
+import android.os.Looper
+import android.widget.ImageView
+import androidx.core.content.ContextCompat
+import java.io.File
+import java.lang.ref.WeakReference
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+
+// Decodes avatars off the main thread into thumbnails sized for the app's avatar views,
+// going through AvatarCache so each avatar URI is decoded from its source only once.
+// A view keeps at most one request; binding it again or calling cancel() drops the old one.
+class AvatarLoader private constructor(context: Context) {
+
+    companion object {
+        private const val DECODE_THREADS = 2
+
+        @Volatile
+        private var instance: AvatarLoader? = null
+
+        @JvmStatic
+        fun getInstance(context: Context): AvatarLoader {
+            return instance ?: synchronized(this) {
+                instance ?: AvatarLoader(context.applicationContext).also { instance = it }
+            }
+        }
+
+        // Largest power of two that keeps both sides at or above the target
+        internal fun calculateSampleSize(width: Int, height: Int, targetPx: Int): Int {
+            var sampleSize = 1
+            while (width / (sampleSize * 2) >= targetPx && height / (sampleSize * 2) >= targetPx) {
+                sampleSize *= 2
+            }
+            return sampleSize
+        }
+    }
+
+    private val appContext = context
+    private val cache = AvatarCache.getInstance(context)
+    private val resolvers = AvatarResolvers.getInstance(context)
+    private val executor: ExecutorService = Executors.newFixedThreadPool(DECODE_THREADS)
+    private val mainHandler = Handler(Looper.getMainLooper())
+    private val activeRequests = ConcurrentHashMap.newKeySet<Request>()
+
+    private inner class Request(
+        view: ImageView,
+        val ref: AvatarRef,
+        val resolver: AvatarResolver,
+        val cacheKey: String
+    ) : Runnable {
+        val viewRef = WeakReference(view)
+        val owner: Context = view.context
+        @Volatile var cancelled = false
+        var future: Future<*>? = null
+
+        override fun run() {
+            if (cancelled) return
+            // Another request for the same avatar may have finished while this one was queued
+            val bitmap = cache.getFromMemory(cacheKey)
+                ?: cache.getFromDisk(cacheKey)
+                ?: decodeSource()?.also { cache.putOnDisk(cacheKey, it) }
+            if (bitmap != null) cache.putInMemory(cacheKey, bitmap)
+            mainHandler.post { deliver(this, bitmap) }
+        }
+
+        // Resolving the source may touch the file system, so it happens here rather than in load()
+        private fun decodeSource(): Bitmap? {
+            val source = resolver.sourceUri(ref) ?: return null
+            return decode(source, cache.thumbnailSizePx)
+        }
+
+        fun cancel() {
+            cancelled = true
+            future?.cancel(true)
+            activeRequests.remove(this)
+        }
+    }
+
+    // avatarValue is the avatar_uri column as stored; see AvatarRef for the format
+    @JvmOverloads
+    fun load(view: ImageView, avatarValue: String?, placeholderRes: Int = android.R.drawable.sym_def_app_icon) {
+        cancel(view)
+        val ref = AvatarRef.decode(avatarValue)
+        val resolver = if (ref != null) resolvers.resolverFor(ref) else null
+        if (ref == null || resolver == null) {
+            view.setImageResource(placeholderRes)
+            return
+        }
+        val immediate = resolver.resolveImmediately(ref)
+        if (immediate != null) {
+            view.setImageDrawable(immediate)
+            return
+        }
+        val cacheKey = ref.encode()
+        val cached = cache.getFromMemory(cacheKey)
+        if (cached != null) {
+            view.setImageBitmap(cached)
+            return
+        }
+
+        view.setImageResource(placeholderRes)
+        val request = Request(view, ref, resolver, cacheKey)
+        view.setTag(R.id.avatar_request, request)
+        activeRequests.add(request)
+        request.future = executor.submit(request)
+    }
+
+    // The avatar's thumbnail as a file in AvatarCache's disk tier, decoded into it first
+    // when needed; null when the avatar cannot be decoded. Blocks on I/O, so never call
+    // it on the main thread.
+    fun thumbnailFile(avatarValue: String?): File? {
+        val ref = AvatarRef.decode(avatarValue) ?: return null
+        val cacheKey = ref.encode()
+        cache.getDiskFile(cacheKey)?.let { return it }
+        val bitmap = cache.getFromMemory(cacheKey)
+            ?: if (ref is AvatarRef.BuiltIn) {
+                renderBuiltIn(ref.resId, cache.thumbnailSizePx)
+            } else {
+                resolvers.resolverFor(ref)?.sourceUri(ref)?.let { decode(it, cache.thumbnailSizePx) }
+            }
+            ?: return null
+        cache.putOnDisk(cacheKey, bitmap)
+        return cache.getDiskFile(cacheKey)
+    }
+
+    fun cancel(view: ImageView) {
+        val request = view.getTag(R.id.avatar_request) as? Request ?: return
+        view.setTag(R.id.avatar_request, null)
+        request.cancel()
+    }
+
+    // Drops every request whose view belongs to the given Activity; call from onDestroy
+    fun cancelAll(owner: Context) {
+        for (request in activeRequests) {
+            if (request.owner === owner) {
+                request.viewRef.get()?.setTag(R.id.avatar_request, null)
+                request.cancel()
+            }
+        }
+    }
+
+    private fun deliver(request: Request, bitmap: Bitmap?) {
+        activeRequests.remove(request)
+        val view = request.viewRef.get() ?: return
+        if (request.cancelled || view.getTag(R.id.avatar_request) !== request) return
+        view.setTag(R.id.avatar_request, null)
+        if (bitmap != null) {
+            view.setImageBitmap(bitmap)
+        }
+    }
+
+    private fun decode(uri: Uri, targetPx: Int): Bitmap? {
+        val resolver = appContext.contentResolver
+        return try {
+            val bounds = BitmapFactory.Options()
+            bounds.inJustDecodeBounds = true
+            resolver.openInputStream(uri)?.use { BitmapFactory.decodeStream(it, null, bounds) }
+            if (bounds.outWidth <= 0 || bounds.outHeight <= 0) return null
+
+            val options = BitmapFactory.Options()
+            options.inSampleSize = calculateSampleSize(bounds.outWidth, bounds.outHeight, targetPx)
+            val sampled = resolver.openInputStream(uri)?.use { BitmapFactory.decodeStream(it, null, options) }
+                ?: return null
+            scaleToFit(sampled, targetPx)
+        } catch (e: Exception) {
+            null
+        }
+    }
+
+    // Built-in avatars may be vectors, so they are drawn rather than decoded. Not through
+    // AvatarResolvers, whose drawable cache belongs to the main thread.
+    private fun renderBuiltIn(resId: Int, sizePx: Int): Bitmap? {
+        val drawable = try {
+            ContextCompat.getDrawable(appContext, resId)
+        } catch (e: Exception) {
+            null
+        } ?: return null
+        val bitmap = Bitmap.createBitmap(sizePx, sizePx, Bitmap.Config.ARGB_8888)
+        drawable.setBounds(0, 0, sizePx, sizePx)
+        drawable.draw(Canvas(bitmap))
+        return bitmap
+    }
+
+    // inSampleSize only halves, so finish with an exact scale of the shorter side to targetPx
+    private fun scaleToFit(bitmap: Bitmap, targetPx: Int): Bitmap {
+        val shortSide = minOf(bitmap.width, bitmap.height)
+        if (shortSide <= targetPx) return bitmap
+        val scale = targetPx.toFloat() / shortSide
+        val scaled = Bitmap.createScaledBitmap(
+            bitmap, (bitmap.width * scale).toInt(), (bitmap.height * scale).toInt(), true)
+        if (scaled !== bitmap) bitmap.recycle()
+        return scaled
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.myapp
+
+import android.net.Uri
+
+// What the avatar_uri column points at. Stored as a one-letter kind, a colon and the value:
+//   r:<resource id>   built-in avatar drawable
+//   f:<file name>     image imported into filesDir/avatars
+//   c:<uri>           content that still lives in another app
+sealed class AvatarRef {
+
+    data class BuiltIn(val resId: Int) : AvatarRef() {
+        override fun encode() = "$KIND_BUILT_IN:$resId"
+    }
+
+    data class PrivateFile(val fileName: String) : AvatarRef() {
+        override fun encode() = "$KIND_PRIVATE_FILE:$fileName"
+    }
+
+    data class External(val uri: String) : AvatarRef() {
+        override fun encode() = "$KIND_EXTERNAL:$uri"
+    }
+
+    abstract fun encode(): String
+
+    companion object {
+        private const val KIND_BUILT_IN = 'r'
+        private const val KIND_PRIVATE_FILE = 'f'
+        private const val KIND_EXTERNAL = 'c'
+
+        // Accepts both the typed encoding and the raw URI strings older versions stored.
+        // Returns null for anything it cannot interpret instead of throwing.
+        @JvmStatic
+        fun decode(value: String?): AvatarRef? {
+            if (value.isNullOrEmpty()) return null
+            if (value.length > 2 && value[1] == ':') {
+                val payload = value.substring(2)
+                when (value[0]) {
+                    KIND_BUILT_IN -> return payload.toIntOrNull()?.let { BuiltIn(it) }
+                    KIND_PRIVATE_FILE -> return PrivateFile(payload)
+                    KIND_EXTERNAL -> return External(payload)
+                }
+            }
+            return decodeLegacyUri(value)
+        }
+
+        private fun decodeLegacyUri(value: String): AvatarRef? {
+            val uri = Uri.parse(value)
+            return when (uri.scheme) {
+                "android.resource" -> uri.lastPathSegment?.toIntOrNull()?.let { BuiltIn(it) }
+                "file" -> uri.lastPathSegment?.let { PrivateFile(it) }
+                "content" -> External(value)
+                else -> null
+            }
+        }
+    }
+}
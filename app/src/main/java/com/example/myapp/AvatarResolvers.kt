@@ -0,0 +1,78 @@
+package com.example.myapp
+
+import android.content.Context
+import android.graphics.drawable.Drawable
+import android.net.Uri
+import android.util.SparseArray
+import androidx.core.content.ContextCompat
+
+// Turns an AvatarRef into something displayable. Each kind of reference has one resolver.
+interface AvatarResolver {
+    // Cheap main-thread path; null means the avatar has to be decoded in the background
+    fun resolveImmediately(ref: AvatarRef): Drawable?
+
+    // Source to decode off the main thread when resolveImmediately returned null
+    fun sourceUri(ref: AvatarRef): Uri?
+}
+
+class AvatarResolvers private constructor(context: Context) {
+
+    companion object {
+        @Volatile
+        private var instance: AvatarResolvers? = null
+
+        @JvmStatic
+        fun getInstance(context: Context): AvatarResolvers {
+            return instance ?: synchronized(this) {
+                instance ?: AvatarResolvers(context.applicationContext).also { instance = it }
+            }
+        }
+    }
+
+    private val resolvers = HashMap<Class<out AvatarRef>, AvatarResolver>()
+
+    init {
+        register(AvatarRef.BuiltIn::class.java, BuiltInResolver(context))
+        register(AvatarRef.PrivateFile::class.java, PrivateFileResolver(context))
+        register(AvatarRef.External::class.java, ExternalResolver())
+    }
+
+    fun register(kind: Class<out AvatarRef>, resolver: AvatarResolver) {
+        resolvers[kind] = resolver
+    }
+
+    fun resolverFor(ref: AvatarRef): AvatarResolver? = resolvers[ref.javaClass]
+
+    // Built-in avatars come from the APK; their drawables are shared through a cached ConstantState
+    private class BuiltInResolver(private val context: Context) : AvatarResolver {
+        private val constantStates = SparseArray<Drawable.ConstantState>()
+
+        override fun resolveImmediately(ref: AvatarRef): Drawable? {
+            val resId = (ref as AvatarRef.BuiltIn).resId
+            val state = constantStates.get(resId)
+            if (state != null) return state.newDrawable(context.resources)
+            val drawable = try {
+                ContextCompat.getDrawable(context, resId)
+            } catch (e: Exception) {
+                null
+            } ?: return null
+            drawable.constantState?.let { constantStates.put(resId, it) }
+            return drawable
+        }
+
+        override fun sourceUri(ref: AvatarRef): Uri? = null
+    }
+
+    private class PrivateFileResolver(private val context: Context) : AvatarResolver {
+        override fun resolveImmediately(ref: AvatarRef): Drawable? = null
+
+        override fun sourceUri(ref: AvatarRef): Uri =
+            Uri.fromFile(AvatarImporter.avatarFile(context, (ref as AvatarRef.PrivateFile).fileName))
+    }
+
+    private class ExternalResolver : AvatarResolver {
+        override fun resolveImmediately(ref: AvatarRef): Drawable? = null
+
+        override fun sourceUri(ref: AvatarRef): Uri = Uri.parse((ref as AvatarRef.External).uri)
+    }
+}
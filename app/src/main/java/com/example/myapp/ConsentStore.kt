@@ -0,0 +1,238 @@
+package com.example.myapp
+
+import android.content.Context
+import android.content.pm.PackageManager
+import android.os.Build
+import android.util.AtomicFile
+import android.util.Log
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileNotFoundException
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+// Which other apps the user has approved in AuthActivity, for which account and scopes,
+// and until when. A consent is keyed by the caller's package and the SHA-256 of its
+// signing certificates, so a different app reinstalled under the same name gets nothing.
+// Lookups are served from memory and carry the account's name, nickname and avatar, so
+// QuickAuthProvider and AuthActivity answer a repeat caller without the database or any
+// UI. Persisted like SessionManager: one small binary record through AtomicFile.
+// Every consent is dropped when the user logs out or switches account.
+class ConsentStore private constructor(context: Context) {
+
+    class Grant(
+        val packageName: String,
+        val certDigest: String,
+        val userId: Long,
+        val username: String,
+        val nickname: String,
+        val avatarUri: String?,
+        val scopes: Int,
+        val expiresAt: Long
+    ) {
+        fun covers(requiredScopes: Int) = scopes and requiredScopes == requiredScopes
+
+        // Changes whenever the avatar does, so the caller can keep its copy until then
+        val avatarVersion: String?
+            get() = avatarUri?.let { uri ->
+                MessageDigest.getInstance("SHA-256").digest(uri.toByteArray())
+                    .take(8).joinToString("") { "%02x".format(it) }
+            }
+
+        fun withProfile(profile: UserDatabaseHelper.UserProfile) = Grant(
+            packageName, certDigest, userId, username, profile.nickname, profile.avatarUri, scopes, expiresAt
+        )
+    }
+
+    companion object {
+        private const val TAG = "ConsentStore"
+        private const val FILE_NAME = "consents.bin"
+        private const val FORMAT_VERSION = 1
+
+        // Username and nickname
+        const val SCOPE_PROFILE = 1
+        // Avatar thumbnail, served by QuickAuthProvider.openFile
+        const val SCOPE_AVATAR = 1 shl 1
+
+        const val DEFAULT_TTL_MS = 30L * 24 * 60 * 60 * 1000
+
+        @Volatile
+        private var instance: ConsentStore? = null
+
+        @JvmStatic
+        fun getInstance(context: Context): ConsentStore {
+            return instance ?: synchronized(this) {
+                instance ?: ConsentStore(context.applicationContext).also { instance = it }
+            }
+        }
+
+        // SHA-256 of the package's current signing certificates, sorted and comma-joined;
+        // null when the package is not installed
+        @JvmStatic
+        fun signingDigest(context: Context, packageName: String): String? {
+            val pm = context.packageManager
+            val signatures = try {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+                    pm.getPackageInfo(packageName, PackageManager.GET_SIGNING_CERTIFICATES)
+                        .signingInfo?.apkContentsSigners
+                } else {
+                    @Suppress("DEPRECATION")
+                    pm.getPackageInfo(packageName, PackageManager.GET_SIGNATURES).signatures
+                }
+            } catch (e: PackageManager.NameNotFoundException) {
+                null
+            }
+            if (signatures.isNullOrEmpty()) return null
+            val sha256 = MessageDigest.getInstance("SHA-256")
+            return signatures
+                .map { signature -> sha256.digest(signature.toByteArray()).joinToString("") { "%02x".format(it) } }
+                .sorted()
+                .joinToString(",")
+        }
+    }
+
+    private val appContext = context
+    private val session = SessionManager.getInstance(context)
+    private val file = AtomicFile(File(context.filesDir, FILE_NAME))
+    private val writer: ExecutorService = Executors.newSingleThreadExecutor()
+
+    // Keyed by package name; the digest is checked on lookup
+    private val grants = ConcurrentHashMap<String, Grant>()
+
+    // Set when a newer state is waiting; the writer always persists the latest one
+    private var writePending = false
+
+    // Account the consents were given under; a session change away from it clears them
+    private var grantedUserId = session.currentUserId
+
+    init {
+        readStored()
+        session.addListener { onSessionChanged() }
+        // Keep the profile handed out without a database read in step with edits
+        UserDatabaseHelper.getInstance(context).changeTracker.observeAll { change ->
+            if (change.affects(UserChangeTracker.NICKNAME or UserChangeTracker.AVATAR)
+                && grants.values.any { it.userId == change.userId }) {
+                writer.execute { refreshProfile(change.userId) }
+            }
+        }
+    }
+
+    fun grant(packageName: String, certDigest: String, profile: UserDatabaseHelper.UserProfile, scopes: Int) {
+        grants[packageName] = Grant(
+            packageName, certDigest, profile.id, profile.username, profile.nickname, profile.avatarUri,
+            scopes, System.currentTimeMillis() + DEFAULT_TTL_MS
+        )
+        schedulePersist()
+    }
+
+    // The caller's consent when it is unexpired, covers requiredScopes and was given for
+    // the account that is logged in now; null otherwise
+    fun find(packageName: String, certDigest: String, requiredScopes: Int): Grant? {
+        val grant = grants[packageName] ?: return null
+        if (grant.certDigest != certDigest || !grant.covers(requiredScopes)) return null
+        if (grant.expiresAt <= System.currentTimeMillis()) {
+            grants.remove(packageName, grant)
+            schedulePersist()
+            return null
+        }
+        val userId = session.currentUserId
+        return if (userId > 0 && grant.userId == userId) grant else null
+    }
+
+    // find() for an installed package, digest looked up from the package manager
+    fun findForPackage(packageName: String, requiredScopes: Int): Grant? {
+        if (grants[packageName] == null) return null
+        val digest = signingDigest(appContext, packageName) ?: return null
+        return find(packageName, digest, requiredScopes)
+    }
+
+    fun clear() {
+        if (grants.isEmpty()) return
+        grants.clear()
+        schedulePersist()
+    }
+
+    private fun onSessionChanged() {
+        val userId = session.currentUserId
+        if (userId != grantedUserId) {
+            grantedUserId = userId
+            clear()
+        }
+    }
+
+    private fun refreshProfile(userId: Long) {
+        val profile = UserWriteQueue.getInstance(appContext).getUserProfile(userId) ?: return
+        for (grant in grants.values) {
+            if (grant.userId != userId) continue
+            if (grant.nickname == profile.nickname && grant.avatarUri == profile.avatarUri) continue
+            grants.replace(grant.packageName, grant, grant.withProfile(profile))
+        }
+        schedulePersist()
+    }
+
+    private fun schedulePersist() {
+        synchronized(this) {
+            if (writePending) return
+            writePending = true
+        }
+        writer.execute { persist() }
+    }
+
+    private fun persist() {
+        val snapshot = synchronized(this) {
+            writePending = false
+            ArrayList(grants.values)
+        }
+        val out = try {
+            file.startWrite()
+        } catch (e: Exception) {
+            Log.e(TAG, "Could not open consent file", e)
+            return
+        }
+        try {
+            val data = DataOutputStream(out)
+            data.writeInt(FORMAT_VERSION)
+            data.writeInt(snapshot.size)
+            for (grant in snapshot) {
+                data.writeUTF(grant.packageName)
+                data.writeUTF(grant.certDigest)
+                data.writeLong(grant.userId)
+                data.writeUTF(grant.username)
+                data.writeUTF(grant.nickname)
+                data.writeUTF(grant.avatarUri ?: "")
+                data.writeInt(grant.scopes)
+                data.writeLong(grant.expiresAt)
+            }
+            data.flush()
+            file.finishWrite(out)
+        } catch (e: Exception) {
+            Log.e(TAG, "Could not write consents", e)
+            file.failWrite(out)
+        }
+    }
+
+    private fun readStored() {
+        try {
+            DataInputStream(file.openRead()).use { data ->
+                if (data.readInt() != FORMAT_VERSION) return
+                val now = System.currentTimeMillis()
+                repeat(data.readInt()) {
+                    val grant = Grant(
+                        data.readUTF(), data.readUTF(), data.readLong(), data.readUTF(), data.readUTF(),
+                        data.readUTF().ifEmpty { null },
+                        data.readInt(), data.readLong()
+                    )
+                    if (grant.expiresAt > now) grants[grant.packageName] = grant
+                }
+            }
+        } catch (e: FileNotFoundException) {
+            // Nothing granted yet
+        } catch (e: Exception) {
+            Log.w(TAG, "Discarding unreadable consents", e)
+            grants.clear()
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.myapp
+
+import android.content.Context
+import android.os.Build
+import android.util.Log
+
+// Owns the password-hashing cost for this device. The PBKDF2 iteration count is measured
+// once against TARGET_MILLIS and kept in SharedPreferences, and measured again after an
+// OS update. Every method here does real CPU work and must be called off the main thread.
+class CredentialEngine private constructor(context: Context) {
+
+    companion object {
+        private const val TAG = "CredentialEngine"
+        private const val PREFS_NAME = "credentials"
+        private const val KEY_ITERATIONS = "pbkdf2_iterations"
+        private const val KEY_FINGERPRINT = "calibrated_on"
+
+        // Budget for one hash or verification on the login path
+        private const val TARGET_MILLIS = 150L
+
+        @Volatile
+        private var instance: CredentialEngine? = null
+
+        @JvmStatic
+        fun getInstance(context: Context): CredentialEngine {
+            return instance ?: synchronized(this) {
+                instance ?: CredentialEngine(context.applicationContext).also { instance = it }
+            }
+        }
+    }
+
+    private val appContext = context
+
+    val iterations: Int by lazy { loadOrCalibrate() }
+
+    // Verified against when the username doesn't exist, so a miss costs as much as a wrong password
+    private val dummyHash: String by lazy { PasswordHasher.hash("", iterations) }
+
+    fun hash(password: String): String = PasswordHasher.hash(password, iterations)
+
+    // stored is null for an unknown user
+    fun verify(password: String, stored: String?): Boolean {
+        if (stored == null) {
+            PasswordHasher.verify(password, dummyHash)
+            return false
+        }
+        return PasswordHasher.verify(password, stored)
+    }
+
+    fun needsRehash(stored: String): Boolean = PasswordHasher.needsRehash(stored, iterations)
+
+    private fun loadOrCalibrate(): Int {
+        val prefs = appContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+        val stored = prefs.getInt(KEY_ITERATIONS, 0)
+        if (stored > 0 && prefs.getString(KEY_FINGERPRINT, null) == Build.FINGERPRINT) {
+            return stored
+        }
+        val start = System.nanoTime()
+        val calibrated = PasswordHasher.calibrate(TARGET_MILLIS)
+        Log.i(TAG, "Calibrated $calibrated iterations for ${TARGET_MILLIS}ms in "
+                + (System.nanoTime() - start) / 1_000_000 + "ms")
+        prefs.edit()
+            .putInt(KEY_ITERATIONS, calibrated)
+            .putString(KEY_FINGERPRINT, Build.FINGERPRINT)
+            .apply()
+        return calibrated
+    }
+}
@@ -1,8 +1,6 @@
 package com.example.myapp
 
-import android.content.Context
 import android.content.Intent
-import android.content.SharedPreferences
 import android.os.Bundle
 import android.text.InputType
 import android.widget.Button
@@ -21,8 +19,8 @@ class MainActivity : AppCompatActivity() {
     private lateinit var btnWechat: LinearLayout
     private lateinit var btnApple: LinearLayout
     private lateinit var tvRegister: TextView
-    private lateinit var dbHelper: UserDatabaseHelper
-    private lateinit var sharedPreferences: SharedPreferences
+    private lateinit var repository: UserRepository
+    private lateinit var session: SessionManager
 
     // 标志位：是否是授权登录流程
     private var isAuthFlow = false
@@ -33,16 +31,30 @@ class MainActivity : AppCompatActivity() {
         // 检查 Intent 中是否有授权流程的标志
         isAuthFlow = intent.getBooleanExtra("IS_AUTH_FLOW", false)
         
-        dbHelper = UserDatabaseHelper(this)
-        sharedPreferences = getSharedPreferences("AppPrefs", Context.MODE_PRIVATE)
+        repository = UserRepository.getInstance(this)
+        session = SessionManager.getInstance(this)
+
+        // 后台把旧版本保存的相册头像转存为应用私有的小图（只执行一次）
+        AvatarImporter.getInstance(this).migrateExternalAvatarsOnce()
 
         // 如果不是授权流程，且已经登录，直接跳转到个人中心
         if (!isAuthFlow && isUserLoggedIn()) {
-            val username = sharedPreferences.getString("current_user", "")
-            val intent = Intent(this, PersonalCenterActivity::class.java)
-            intent.putExtra("USERNAME", username)
-            startActivity(intent)
-            finish()
+            val userId = session.currentUserId
+            if (userId > 0) {
+                openPersonalCenter(userId)
+                return
+            }
+            // 旧版本保存的会话只有用户名：解析一次 id 后写回会话
+            val username = session.currentUser
+            repository.resolveUserId(username) { id ->
+                if (id > 0) {
+                    session.login(id, username)
+                    openPersonalCenter(id)
+                } else {
+                    session.logout()
+                    recreate()
+                }
+            }
             return
         }
 
@@ -56,7 +68,14 @@ class MainActivity : AppCompatActivity() {
     }
     
     private fun isUserLoggedIn(): Boolean {
-        return sharedPreferences.getBoolean("is_logged_in", false)
+        return session.isLoggedIn
+    }
+
+    private fun openPersonalCenter(userId: Long) {
+        val intent = Intent(this, PersonalCenterActivity::class.java)
+        intent.putExtra(PersonalCenterActivity.EXTRA_USER_ID, userId)
+        startActivity(intent)
+        finish()
     }
 
     private fun initViews() {
@@ -69,20 +88,12 @@ class MainActivity : AppCompatActivity() {
     }
 
     private fun initDatabase() {
-        if (!dbHelper.isUserExists("admin")) {
-            dbHelper.addUser("admin", "123456")
-        }
-        
-        if (!sharedPreferences.contains("user_signature")) {
-            val editor = sharedPreferences.edit()
-            editor.putString("user_signature", "这里是个性签名，欢迎来到我的App")
-            editor.apply()
-        }
+        repository.ensureDefaultAccount()
     }
     
     private fun checkAutoLogin() {
-        val lastUser = sharedPreferences.getString("last_username", "")
-        if (!lastUser.isNullOrEmpty()) {
+        val lastUser = session.lastUsername
+        if (lastUser.isNotEmpty()) {
             etUsername.setText(lastUser)
         }
     }
@@ -113,33 +124,16 @@ class MainActivity : AppCompatActivity() {
                 return@setOnClickListener
             }
 
-            if (dbHelper.checkUser(username, password)) {
-                Toast.makeText(this, "登录成功", Toast.LENGTH_SHORT).show()
-                
-                // 保存登录状态
-                sharedPreferences.edit()
-                    .putBoolean("is_logged_in", true)
-                    .putString("current_user", username)
-                    .putString("last_username", username)
-                    .apply()
-                
-                // 更新数据库最后登录时间
-                dbHelper.updateLastLogin(username)
-
-                if (isAuthFlow) {
-                    // 如果是授权流程，登录成功后直接 finish，返回给 AuthActivity
-                    // 不需要跳转到个人中心
-                    setResult(RESULT_OK)
-                    finish()
+            // 校验在后台线程执行，结果回到主线程；校验期间禁止重复点击
+            btnLogin.isEnabled = false
+            repository.login(username, password) { profile ->
+                btnLogin.isEnabled = true
+                if (isFinishing || isDestroyed) return@login
+                if (profile != null) {
+                    onLoginSuccess(profile)
                 } else {
-                    // 正常流程，跳转到个人中心
-                    val intent = Intent(this, PersonalCenterActivity::class.java)
-                    intent.putExtra("USERNAME", username)
-                    startActivity(intent)
-                    finish()
+                    Toast.makeText(this, "账号或密码错误", Toast.LENGTH_SHORT).show()
                 }
-            } else {
-                Toast.makeText(this, "账号或密码错误", Toast.LENGTH_SHORT).show()
             }
         }
 
@@ -156,6 +150,28 @@ class MainActivity : AppCompatActivity() {
         }
     }
     
+    private fun onLoginSuccess(profile: UserDatabaseHelper.UserProfile) {
+        Toast.makeText(this, "登录成功", Toast.LENGTH_SHORT).show()
+        
+        // 保存登录状态（内存中立即生效，后台落盘）；最后登录时间已在登录事务中更新
+        session.login(profile.id, profile.username)
+
+        if (isAuthFlow) {
+            // 如果是授权流程，登录成功后直接 finish，返回给 AuthActivity
+            // 不需要跳转到个人中心
+            setResult(RESULT_OK)
+            finish()
+        } else {
+            // 正常流程，跳转到个人中心
+            val intent = Intent(this, PersonalCenterActivity::class.java)
+            // 直接传入登录时读到的资料，个人中心无需再查询数据库
+            intent.putExtra(PersonalCenterActivity.EXTRA_USER_ID, profile.id)
+            intent.putExtra(PersonalCenterActivity.EXTRA_PROFILE, profile)
+            startActivity(intent)
+            finish()
+        }
+    }
+    
     private fun showRegisterDialog() {
         val builder = AlertDialog.Builder(this)
         builder.setTitle("注册账号")
@@ -180,13 +196,15 @@ class MainActivity : AppCompatActivity() {
             val password = inputPassword.text.toString().trim()
 
             if (username.isNotEmpty() && password.isNotEmpty()) {
-                if (dbHelper.isUserExists(username)) {
-                    Toast.makeText(this, "用户名已存在", Toast.LENGTH_SHORT).show()
-                } else {
-                    dbHelper.addUser(username, password)
-                    Toast.makeText(this, "注册成功，请登录", Toast.LENGTH_SHORT).show()
-                    etUsername.setText(username)
-                    etPassword.setText(password)
+                // 用户名的 UNIQUE 约束负责查重，插入失败即表示已存在
+                repository.addUser(username, password) { id ->
+                    if (id == -1L) {
+                        Toast.makeText(this, "用户名已存在", Toast.LENGTH_SHORT).show()
+                    } else {
+                        Toast.makeText(this, "注册成功，请登录", Toast.LENGTH_SHORT).show()
+                        etUsername.setText(username)
+                        etPassword.setText(password)
+                    }
                 }
             } else {
                 Toast.makeText(this, "用户名和密码不能为空", Toast.LENGTH_SHORT).show()
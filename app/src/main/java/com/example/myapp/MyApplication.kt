@@ -0,0 +1,29 @@
+package com.example.myapp
+
+import android.app.Application
+import android.os.StrictMode
+
+class MyApplication : Application() {
+
+    override fun onCreate() {
+        super.onCreate()
+
+        // The session and the consents are read once here, before the strict policy below
+        // is installed; after that all reads are served from memory. Nothing else is: this
+        // also runs when App B starts the process just for AuthActivity or QuickAuthProvider.
+        SessionManager.getInstance(this)
+        ConsentStore.getInstance(this)
+
+        if (BuildConfig.DEBUG) {
+            // Fail fast on any database or file access from the UI thread
+            StrictMode.setThreadPolicy(
+                StrictMode.ThreadPolicy.Builder()
+                    .detectDiskReads()
+                    .detectDiskWrites()
+                    .penaltyLog()
+                    .penaltyDeath()
+                    .build()
+            )
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.myapp
+
+import java.security.MessageDigest
+import java.security.SecureRandom
+import javax.crypto.Mac
+import javax.crypto.spec.SecretKeySpec
+
+// Salted PBKDF2-HMAC-SHA256. The stored form carries its own parameters,
+// "pbkdf2-sha256$<iterations>$<salt hex>$<hash hex>", so each row can be verified with the
+// cost it was hashed at and upgraded later. Anything else in the password column is a
+// legacy plaintext value from before hashing. Plain JVM code so it can be benchmarked in
+// unit tests; CredentialEngine supplies the device-calibrated iteration count.
+object PasswordHasher {
+
+    private const val PREFIX = "pbkdf2-sha256"
+    private const val SEPARATOR = '$'
+    private const val HMAC = "HmacSHA256"
+    private const val SALT_BYTES = 16
+    private const val HASH_BYTES = 32
+
+    // Probe runs are doubled until one takes this long, so timer noise stays small
+    private const val MIN_PROBE_NANOS = 20_000_000L
+
+    const val MIN_ITERATIONS = 50_000
+    const val MAX_ITERATIONS = 2_000_000
+
+    private val random = SecureRandom()
+
+    fun hash(password: String, iterations: Int): String {
+        val salt = ByteArray(SALT_BYTES).also { random.nextBytes(it) }
+        return encode(iterations, salt, pbkdf2(password, salt, iterations))
+    }
+
+    // Constant-time; a legacy plaintext value is compared as is
+    fun verify(password: String, stored: String): Boolean {
+        val parts = parse(stored)
+            ?: return MessageDigest.isEqual(password.toByteArray(), stored.toByteArray())
+        val (iterations, salt, expected) = parts
+        return MessageDigest.isEqual(pbkdf2(password, salt, iterations), expected)
+    }
+
+    // False for legacy plaintext
+    fun isHashed(stored: String): Boolean = parse(stored) != null
+
+    // True for plaintext and for hashes made with fewer iterations than the current setting
+    fun needsRehash(stored: String, iterations: Int): Boolean {
+        val parts = parse(stored) ?: return true
+        return parts.first < iterations
+    }
+
+    // Iterations that take about targetMillis on this machine, within the fixed bounds
+    fun calibrate(targetMillis: Long): Int {
+        val salt = ByteArray(SALT_BYTES)
+        // Warm-up so the first measurement isn't dominated by class loading and JIT
+        pbkdf2("calibration", salt, 1_000)
+        var iterations = 4_096
+        var elapsed: Long
+        while (true) {
+            val start = System.nanoTime()
+            pbkdf2("calibration", salt, iterations)
+            elapsed = System.nanoTime() - start
+            if (elapsed >= MIN_PROBE_NANOS || iterations >= MAX_ITERATIONS) break
+            iterations *= 2
+        }
+        val scaled = iterations.toLong() * targetMillis * 1_000_000L / elapsed.coerceAtLeast(1L)
+        // Round to a thousand; the stored hashes are easier to read that way
+        val rounded = (scaled / 1_000L) * 1_000L
+        return rounded.coerceIn(MIN_ITERATIONS.toLong(), MAX_ITERATIONS.toLong()).toInt()
+    }
+
+    // RFC 8018 PBKDF2 for a single 32-byte block, which is all HMAC-SHA256 needs here.
+    // Written out because the platform's PBKDF2WithHmacSHA256 only exists from API 26.
+    internal fun pbkdf2(password: String, salt: ByteArray, iterations: Int, length: Int = HASH_BYTES): ByteArray {
+        val mac = Mac.getInstance(HMAC)
+        // HMAC zero-pads its key, so one zero byte is the same key as an empty password,
+        // which SecretKeySpec would reject
+        val key = password.toByteArray().ifEmpty { ByteArray(1) }
+        mac.init(SecretKeySpec(key, HMAC))
+        val blocks = (length + mac.macLength - 1) / mac.macLength
+        val out = ByteArray(blocks * mac.macLength)
+        for (block in 1..blocks) {
+            mac.update(salt)
+            mac.update(byteArrayOf((block ushr 24).toByte(), (block ushr 16).toByte(), (block ushr 8).toByte(), block.toByte()))
+            var u = mac.doFinal()
+            val t = u.copyOf()
+            for (i in 1 until iterations) {
+                u = mac.doFinal(u)
+                for (j in t.indices) t[j] = (t[j].toInt() xor u[j].toInt()).toByte()
+            }
+            System.arraycopy(t, 0, out, (block - 1) * mac.macLength, t.size)
+        }
+        return out.copyOf(length)
+    }
+
+    private fun encode(iterations: Int, salt: ByteArray, hash: ByteArray): String =
+        "$PREFIX$SEPARATOR$iterations$SEPARATOR${toHex(salt)}$SEPARATOR${toHex(hash)}"
+
+    // Null when the value isn't in the hashed format
+    private fun parse(stored: String): Triple<Int, ByteArray, ByteArray>? {
+        val parts = stored.split(SEPARATOR)
+        if (parts.size != 4 || parts[0] != PREFIX) return null
+        val iterations = parts[1].toIntOrNull() ?: return null
+        val salt = fromHex(parts[2]) ?: return null
+        val hash = fromHex(parts[3]) ?: return null
+        if (iterations < 1) return null
+        return Triple(iterations, salt, hash)
+    }
+
+    private fun toHex(bytes: ByteArray): String {
+        val sb = StringBuilder(bytes.size * 2)
+        for (b in bytes) {
+            sb.append(Character.forDigit((b.toInt() shr 4) and 0xF, 16))
+            sb.append(Character.forDigit(b.toInt() and 0xF, 16))
+        }
+        return sb.toString()
+    }
+
+    private fun fromHex(hex: String): ByteArray? {
+        if (hex.isEmpty() || hex.length % 2 != 0) return null
+        val bytes = ByteArray(hex.length / 2)
+        for (i in bytes.indices) {
+            val hi = Character.digit(hex[i * 2], 16)
+            val lo = Character.digit(hex[i * 2 + 1], 16)
+            if (hi < 0 || lo < 0) return null
+            bytes[i] = ((hi shl 4) or lo).toByte()
+        }
+        return bytes
+    }
+}
@@ -1,9 +1,7 @@
 package com.example.myapp;
 
-import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.net.Uri;
 import android.os.Bundle;
 import android.provider.MediaStore;
@@ -35,17 +33,27 @@ public class PersonalCenterActivity extends AppCompatActivity {
     private Button btnLogout; 
     private ImageView btnAccountManager;
 
-    private UserDatabaseHelper dbHelper;
-    private String currentUsername;
+    private UserRepository repository;
+    private AvatarLoader avatarLoader;
+    private SessionManager session;
+    private long currentUserId;
+    private UserChangeTracker.Subscription profileChanges;
     
     private static final int PICK_IMAGE_REQUEST = 1;
+    
+    // Row id of the user to show; falls back to the session's user when absent
+    public static final String EXTRA_USER_ID = "USER_ID";
+    // Optional UserDatabaseHelper.UserProfile the caller already has; shown without a query
+    public static final String EXTRA_PROFILE = "PROFILE";
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_personal_center);
         
-        dbHelper = new UserDatabaseHelper(this);
+        repository = UserRepository.getInstance(this);
+        avatarLoader = AvatarLoader.getInstance(this);
+        session = SessionManager.getInstance(this);
 
         initViews();
         loadData();
@@ -67,44 +75,54 @@ public class PersonalCenterActivity extends AppCompatActivity {
     }
 
     private void loadData() {
-        currentUsername = getIntent().getStringExtra("USERNAME");
+        UserDatabaseHelper.UserProfile handedOver =
+                (UserDatabaseHelper.UserProfile) getIntent().getSerializableExtra(EXTRA_PROFILE);
+        currentUserId = handedOver != null
+                ? handedOver.getId()
+                : getIntent().getLongExtra(EXTRA_USER_ID, 0L);
         
-        if (currentUsername == null || currentUsername.isEmpty()) {
-            SharedPreferences sp = getSharedPreferences("AppPrefs", Context.MODE_PRIVATE);
-            currentUsername = sp.getString("current_user", "");
+        if (currentUserId <= 0) {
+            currentUserId = session.getCurrentUserId();
         }
 
-        if (currentUsername != null && !currentUsername.isEmpty()) {
-            String nickname = dbHelper.getUserNickname(currentUsername);
-            tvUsername.setText(nickname);
-            
-            // Load Avatar
-            String avatarUriStr = dbHelper.getUserAvatar(currentUsername);
-            if (avatarUriStr != null && !avatarUriStr.isEmpty()) {
-                if (avatarUriStr.startsWith("android.resource")) {
-                    // System default avatar
-                    try {
-                        ivAvatar.setImageResource(Integer.parseInt(avatarUriStr.split("/")[1])); // Just a hacky way, better store resId
-                    } catch (Exception e) {
-                         // If stored as uri string
-                         ivAvatar.setImageURI(Uri.parse(avatarUriStr));
-                    }
-                } else {
-                    // Gallery uri
-                    try {
-                        ivAvatar.setImageURI(Uri.parse(avatarUriStr));
-                    } catch (Exception e) {
-                        e.printStackTrace();
+        if (currentUserId > 0) {
+            if (handedOver != null) {
+                showProfile(handedOver);
+            } else {
+                tvUsername.setText(session.getCurrentUser());
+                loadProfile();
+            }
+            // Re-read the profile when this user's row changes, e.g. when a gallery import finishes
+            profileChanges = repository.observeUser(currentUserId, new UserChangeTracker.Observer() {
+                @Override
+                public void onUserChanged(UserChangeTracker.UserChange change) {
+                    if (change.affects(UserChangeTracker.NICKNAME | UserChangeTracker.AVATAR)) {
+                        loadProfile();
                     }
                 }
-            }
+            });
         } else {
             tvUsername.setText("未登录用户");
         }
 
-        SharedPreferences sharedPreferences = getSharedPreferences("AppPrefs", Context.MODE_PRIVATE);
-        String signature = sharedPreferences.getString("user_signature", "这里是个性签名，欢迎来到我的App");
-        tvSignature.setText(signature);
+        tvSignature.setText(session.getSignature());
+    }
+    
+    private void loadProfile() {
+        repository.getUserProfile(currentUserId, new UserRepository.Callback<UserDatabaseHelper.UserProfile>() {
+            @Override
+            public void onResult(UserDatabaseHelper.UserProfile profile) {
+                if (isDestroyed() || profile == null) return;
+                showProfile(profile);
+            }
+        });
+    }
+    
+    private void showProfile(UserDatabaseHelper.UserProfile profile) {
+        tvUsername.setText(profile.getNickname());
+        
+        // Load Avatar
+        avatarLoader.load(ivAvatar, profile.getAvatarUri());
     }
 
     private void initListeners() {
@@ -209,13 +227,10 @@ public class PersonalCenterActivity extends AppCompatActivity {
     }
     
     private void updateAvatarResource(int resId) {
-        if (currentUsername != null && !currentUsername.isEmpty()) {
-            Uri resUri = Uri.parse("android.resource://" + getPackageName() + "/" + resId);
-            dbHelper.updateUserAvatar(currentUsername, resUri.toString());
-            ivAvatar.setImageURI(resUri);
-            
-            // Fallback for visual update if Uri fails for internal resources
-            ivAvatar.setImageResource(resId);
+        if (currentUserId > 0) {
+            String avatarRef = new AvatarRef.BuiltIn(resId).encode();
+            repository.updateUserAvatar(currentUserId, avatarRef);
+            avatarLoader.load(ivAvatar, avatarRef);
             
             Toast.makeText(this, "头像已更新", Toast.LENGTH_SHORT).show();
         }
@@ -231,10 +246,21 @@ public class PersonalCenterActivity extends AppCompatActivity {
         super.onActivityResult(requestCode, resultCode, data);
         if (requestCode == PICK_IMAGE_REQUEST && resultCode == RESULT_OK && data != null && data.getData() != null) {
             Uri imageUri = data.getData();
-            if (currentUsername != null && !currentUsername.isEmpty()) {
-                dbHelper.updateUserAvatar(currentUsername, imageUri.toString());
-                ivAvatar.setImageURI(imageUri);
-                Toast.makeText(this, "头像已更新", Toast.LENGTH_SHORT).show();
+            if (currentUserId > 0) {
+                // Re-encode once into private storage; the stored reference then never
+                // depends on the gallery URI permission
+                AvatarImporter.getInstance(this).importAvatar(currentUserId, imageUri, new AvatarImporter.Callback() {
+                    @Override
+                    public void onImported(String avatarRef) {
+                        if (isDestroyed()) return;
+                        if (avatarRef != null) {
+                            avatarLoader.load(ivAvatar, avatarRef);
+                            Toast.makeText(PersonalCenterActivity.this, "头像已更新", Toast.LENGTH_SHORT).show();
+                        } else {
+                            Toast.makeText(PersonalCenterActivity.this, "头像更新失败", Toast.LENGTH_SHORT).show();
+                        }
+                    }
+                });
             }
         }
     }
@@ -276,12 +302,12 @@ public class PersonalCenterActivity extends AppCompatActivity {
                 String newPassword = inputPassword.getText().toString().trim();
                 
                 if (!newNickname.isEmpty()) {
-                    dbHelper.updateUserNickname(currentUsername, newNickname);
+                    repository.updateUserNickname(currentUserId, newNickname);
                     tvUsername.setText(newNickname);
                 }
                 
                 if (!newPassword.isEmpty()) {
-                    dbHelper.updateUserPassword(currentUsername, newPassword);
+                    repository.updateUserPassword(currentUserId, newPassword);
                     Toast.makeText(PersonalCenterActivity.this, "密码已修改，请重新登录", Toast.LENGTH_SHORT).show();
                     logout();
                 } else {
@@ -307,12 +333,17 @@ public class PersonalCenterActivity extends AppCompatActivity {
             .show();
     }
     
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (profileChanges != null) {
+            profileChanges.unsubscribe();
+        }
+        avatarLoader.cancelAll(this);
+    }
+    
     private void logout() {
-        SharedPreferences sp = getSharedPreferences("AppPrefs", Context.MODE_PRIVATE);
-        SharedPreferences.Editor editor = sp.edit();
-        editor.remove("is_logged_in");
-        editor.remove("current_user");
-        editor.apply();
+        session.logout();
         
         Intent intent = new Intent(PersonalCenterActivity.this, MainActivity.class);
         intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
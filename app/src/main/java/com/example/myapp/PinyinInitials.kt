@@ -0,0 +1,35 @@
+package com.example.myapp
+
+import android.icu.text.Transliterator
+import android.os.Build
+
+// Pinyin initials for the search index, so "zs" finds a nickname of 张三. Stored in the
+// nickname_initials column and kept current by UserDatabaseHelper whenever a nickname is
+// written. Needs ICU's Han-Latin transliterator (API 29); older devices index without it.
+object PinyinInitials {
+
+    private val transliterator: Transliterator? by lazy {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            try {
+                Transliterator.getInstance("Han-Latin; Latin-ASCII")
+            } catch (e: Exception) {
+                null
+            }
+        } else {
+            null
+        }
+    }
+
+    // Null when the text has no Chinese characters or no transliterator is available
+    fun of(text: String?): String? {
+        if (text.isNullOrEmpty() || text.none { Character.UnicodeScript.of(it.code) == Character.UnicodeScript.HAN }) {
+            return null
+        }
+        val latin = synchronized(this) { transliterator?.transliterate(text) } ?: return null
+        // Han-Latin emits one space-separated syllable per character
+        val initials = latin.split(' ')
+            .mapNotNull { syllable -> syllable.firstOrNull { it.isLetterOrDigit() }?.lowercaseChar() }
+            .joinToString("")
+        return initials.ifEmpty { null }
+    }
+}
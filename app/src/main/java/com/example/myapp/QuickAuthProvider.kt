@@ -0,0 +1,95 @@
+package com.example.myapp
+
+import android.content.ContentProvider
+import android.content.ContentValues
+import android.database.Cursor
+import android.net.Uri
+import android.os.Bundle
+import android.os.ParcelFileDescriptor
+import android.util.Log
+import java.io.FileNotFoundException
+
+// Headless quick login for other apps signed with our key (the QUICK_AUTH permission is
+// signature-level). call("quick_login") answers on a binder thread without starting any
+// Activity: the consented profile when the caller's consent is still valid, otherwise
+// STATUS_CONSENT_REQUIRED, after which the caller falls back to ACTION_AUTH_LOGIN.
+// The avatar thumbnail is read through openFile(AVATAR_URI): the caller gets a read-only
+// descriptor for the cached file and decodes straight from it, so the image bytes never
+// pass through a binder transaction.
+class QuickAuthProvider : ContentProvider() {
+
+    companion object {
+        private const val TAG = "QuickAuthProvider"
+
+        const val AUTHORITY = "com.example.myapp.quickauth"
+        const val METHOD_QUICK_LOGIN = "quick_login"
+
+        const val KEY_STATUS = "STATUS"
+        const val STATUS_GRANTED = "granted"
+        const val STATUS_CONSENT_REQUIRED = "consent_required"
+
+        // Same extras AuthActivity returns, so the caller handles both paths alike
+        const val KEY_USERNAME = "AUTH_USERNAME"
+        const val KEY_NICKNAME = "AUTH_NICKNAME"
+        // Present when the caller may read the avatar; changes whenever the avatar does
+        const val KEY_AVATAR_VERSION = "AUTH_AVATAR_VERSION"
+
+        val AVATAR_URI: Uri = Uri.parse("content://$AUTHORITY/avatar")
+
+        // Thumbnails are a few KB; anything bigger is not what this channel is for
+        const val MAX_AVATAR_BYTES = 256L * 1024
+    }
+
+    // Nothing is touched here: providers are created before Application.onCreate on every
+    // cold start of the process, whether or not anyone calls them
+    override fun onCreate(): Boolean = true
+
+    override fun call(method: String, arg: String?, extras: Bundle?): Bundle? {
+        if (method != METHOD_QUICK_LOGIN) return null
+        val caller = callingPackage ?: return consentRequired()
+        val appContext = context?.applicationContext ?: return consentRequired()
+
+        // Answered from memory: the consent carries the account's name and nickname
+        val grant = ConsentStore.getInstance(appContext)
+            .findForPackage(caller, ConsentStore.SCOPE_PROFILE) ?: return consentRequired()
+        Log.i(TAG, "Quick login for $caller")
+        return Bundle().apply {
+            putString(KEY_STATUS, STATUS_GRANTED)
+            putString(KEY_USERNAME, grant.username)
+            putString(KEY_NICKNAME, grant.nickname)
+            if (grant.covers(ConsentStore.SCOPE_AVATAR)) putString(KEY_AVATAR_VERSION, grant.avatarVersion)
+        }
+    }
+
+    override fun openFile(uri: Uri, mode: String): ParcelFileDescriptor {
+        if (uri != AVATAR_URI || mode != "r") throw FileNotFoundException("Unsupported: $uri ($mode)")
+        val caller = callingPackage ?: throw SecurityException("Unknown caller")
+        val appContext = context?.applicationContext ?: throw FileNotFoundException("Not attached")
+        val grant = ConsentStore.getInstance(appContext)
+            .findForPackage(caller, ConsentStore.SCOPE_AVATAR)
+            ?: throw SecurityException("No avatar consent for $caller")
+        val file = AvatarLoader.getInstance(appContext).thumbnailFile(grant.avatarUri)
+            ?: throw FileNotFoundException("No avatar")
+        if (file.length() > MAX_AVATAR_BYTES) throw FileNotFoundException("Avatar too large")
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY)
+    }
+
+    private fun consentRequired() = Bundle().apply { putString(KEY_STATUS, STATUS_CONSENT_REQUIRED) }
+
+    // Only call() is offered
+    override fun query(
+        uri: Uri,
+        projection: Array<out String>?,
+        selection: String?,
+        selectionArgs: Array<out String>?,
+        sortOrder: String?
+    ): Cursor? = null
+
+    override fun getType(uri: Uri): String? = null
+
+    override fun insert(uri: Uri, values: ContentValues?): Uri? = null
+
+    override fun delete(uri: Uri, selection: String?, selectionArgs: Array<out String>?): Int = 0
+
+    override fun update(uri: Uri, values: ContentValues?, selection: String?, selectionArgs: Array<out String>?): Int = 0
+}
@@ -0,0 +1,190 @@
+package com.example.myapp
+
+import android.content.Context
+import android.os.Handler
+import android.os.Looper
+import android.util.AtomicFile
+import android.util.Log
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileNotFoundException
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+// Process-wide login session. Reads are served from memory; every change is written
+// in the background as one small binary record through AtomicFile, so a crash mid-write
+// leaves the previous session intact. Replaces the old "AppPrefs" SharedPreferences keys.
+class SessionManager private constructor(context: Context) {
+
+    fun interface Listener {
+        // Always called on the main thread
+        fun onSessionChanged(session: SessionManager)
+    }
+
+    companion object {
+        private const val TAG = "SessionManager"
+        private const val FILE_NAME = "session.bin"
+        private const val FORMAT_VERSION = 1
+        private const val LEGACY_PREFS = "AppPrefs"
+        const val DEFAULT_SIGNATURE = "这里是个性签名，欢迎来到我的App"
+
+        @Volatile
+        private var instance: SessionManager? = null
+
+        @JvmStatic
+        fun getInstance(context: Context): SessionManager {
+            return instance ?: synchronized(this) {
+                instance ?: SessionManager(context.applicationContext).also { instance = it }
+            }
+        }
+    }
+
+    private class Snapshot(
+        val loggedIn: Boolean,
+        val currentUserId: Long,
+        val currentUser: String,
+        val lastUsername: String,
+        val signature: String
+    )
+
+    private val appContext = context
+    private val file = AtomicFile(File(context.filesDir, FILE_NAME))
+    private val writer: ExecutorService = Executors.newSingleThreadExecutor()
+    private val mainHandler = Handler(Looper.getMainLooper())
+    private val listeners = CopyOnWriteArrayList<Listener>()
+
+    @Volatile
+    private var state: Snapshot
+
+    // Set when a newer snapshot is waiting; the writer always persists the latest one
+    private var writePending = false
+
+    init {
+        val stored = readStored()
+        if (stored != null) {
+            state = stored
+        } else {
+            // First start after upgrading: carry the old SharedPreferences session over once
+            state = readLegacyPrefs()
+            writePending = true
+            writer.execute { persist() }
+        }
+    }
+
+    val isLoggedIn: Boolean
+        get() = state.loggedIn && state.currentUser.isNotEmpty()
+
+    // Empty when nobody is logged in
+    val currentUser: String
+        get() = if (state.loggedIn) state.currentUser else ""
+
+    // Row id of currentUser; 0 when nobody is logged in, and also for a session carried
+    // over from the AppPrefs keys, which the caller resolves from currentUser once
+    val currentUserId: Long
+        get() = if (state.loggedIn) state.currentUserId else 0L
+
+    val lastUsername: String
+        get() = state.lastUsername
+
+    val signature: String
+        get() = state.signature
+
+    // Login and account switch both land here
+    fun login(userId: Long, username: String) {
+        update { Snapshot(true, userId, username, username, it.signature) }
+    }
+
+    fun logout() {
+        update { Snapshot(false, 0L, "", it.lastUsername, it.signature) }
+    }
+
+    fun setSignature(signature: String) {
+        update { Snapshot(it.loggedIn, it.currentUserId, it.currentUser, it.lastUsername, signature) }
+    }
+
+    fun addListener(listener: Listener) {
+        listeners.add(listener)
+    }
+
+    fun removeListener(listener: Listener) {
+        listeners.remove(listener)
+    }
+
+    private fun update(change: (Snapshot) -> Snapshot) {
+        synchronized(this) {
+            state = change(state)
+            if (!writePending) {
+                writePending = true
+                writer.execute { persist() }
+            }
+        }
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            notifyListeners()
+        } else {
+            mainHandler.post { notifyListeners() }
+        }
+    }
+
+    private fun notifyListeners() {
+        for (listener in listeners) {
+            listener.onSessionChanged(this)
+        }
+    }
+
+    private fun persist() {
+        val snapshot = synchronized(this) {
+            writePending = false
+            state
+        }
+        val out = try {
+            file.startWrite()
+        } catch (e: Exception) {
+            Log.e(TAG, "Could not open session file", e)
+            return
+        }
+        try {
+            val data = DataOutputStream(out)
+            data.writeInt(FORMAT_VERSION)
+            data.writeBoolean(snapshot.loggedIn)
+            data.writeLong(snapshot.currentUserId)
+            data.writeUTF(snapshot.currentUser)
+            data.writeUTF(snapshot.lastUsername)
+            data.writeUTF(snapshot.signature)
+            data.flush()
+            file.finishWrite(out)
+        } catch (e: Exception) {
+            Log.e(TAG, "Could not write session", e)
+            file.failWrite(out)
+        }
+    }
+
+    // Null when no session has been written yet
+    private fun readStored(): Snapshot? {
+        try {
+            DataInputStream(file.openRead()).use { data ->
+                if (data.readInt() == FORMAT_VERSION) {
+                    return Snapshot(
+                        data.readBoolean(), data.readLong(), data.readUTF(), data.readUTF(), data.readUTF())
+                }
+            }
+        } catch (e: FileNotFoundException) {
+            return null
+        } catch (e: Exception) {
+            Log.w(TAG, "Discarding unreadable session", e)
+        }
+        return Snapshot(false, 0L, "", "", DEFAULT_SIGNATURE)
+    }
+
+    private fun readLegacyPrefs(): Snapshot {
+        val prefs = appContext.getSharedPreferences(LEGACY_PREFS, Context.MODE_PRIVATE)
+        return Snapshot(
+            prefs.getBoolean("is_logged_in", false),
+            0L,
+            prefs.getString("current_user", "") ?: "",
+            prefs.getString("last_username", "") ?: "",
+            prefs.getString("user_signature", DEFAULT_SIGNATURE) ?: DEFAULT_SIGNATURE
+        )
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.myapp
+
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicLong
+
+// Merges identical concurrent loads: while a load for a key is queued or running, further
+// requests for the same key wait for it instead of starting their own, and every waiter
+// gets the one result. Keys must change whenever the loaded value may have changed, or a
+// late joiner could receive a result read before its own request.
+// onError is told about a failed load; it is a parameter so this class stays free of
+// Android and runs in host tests.
+class SingleFlight<K, V>(
+    private val executor: Executor,
+    private val onError: (K, Throwable) -> Unit
+) {
+
+    class Stats(val executed: Long, val deduplicated: Long)
+
+    // Guarded by itself
+    private val inFlight = HashMap<K, ArrayList<(V?) -> Unit>>()
+    private val executed = AtomicLong()
+    private val deduplicated = AtomicLong()
+
+    // onResult runs on the executor thread that did the load. If the load throws, every
+    // waiter gets null and the exception goes to onError, so the thread survives.
+    fun load(key: K, loader: () -> V, onResult: (V?) -> Unit) {
+        synchronized(inFlight) {
+            val waiters = inFlight[key]
+            if (waiters != null) {
+                waiters.add(onResult)
+                deduplicated.incrementAndGet()
+                return
+            }
+            inFlight[key] = arrayListOf(onResult)
+        }
+        executed.incrementAndGet()
+        executor.execute {
+            val result = try {
+                loader()
+            } catch (e: Exception) {
+                onError(key, e)
+                null
+            }
+            val waiters = synchronized(inFlight) { inFlight.remove(key) } ?: return@execute
+            for (waiter in waiters) waiter(result)
+        }
+    }
+
+    fun stats() = Stats(executed.get(), deduplicated.get())
+}
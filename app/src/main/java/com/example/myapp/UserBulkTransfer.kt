@@ -0,0 +1,263 @@
+package com.example.myapp
+
+import android.util.JsonReader
+import android.util.JsonToken
+import android.util.JsonWriter
+import java.io.BufferedReader
+import java.io.BufferedWriter
+import java.io.InputStream
+import java.io.InputStreamReader
+import java.io.OutputStream
+import java.io.OutputStreamWriter
+import java.io.Writer
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+// Provisioning for shared devices: streams accounts in from CSV or JSON and out again.
+// Imports are inserted BATCH_SIZE rows per transaction; exports never hold more than one
+// page of the table in memory. Both run on the calling thread, which must not be the main one.
+//
+// CSV: "username,password[,nickname]" per line, an optional header line, RFC 4180 quoting.
+// JSON: an array of {"username": ..., "password": ..., "nickname": ...} objects.
+// Passwords are hashed at the device's calibrated cost, spread over all cores. A value that
+// is already a PasswordHasher hash is stored as is only when the caller passes acceptHashed,
+// and never below PasswordHasher.MIN_ITERATIONS; otherwise its row is reported invalid.
+// Exports carry no passwords, so they are a different format that import refuses: CSV
+// with the EXPORT_CSV_HEADER line, JSON as an object with the rows under "users".
+class UserBulkTransfer(
+    private val dbHelper: UserDatabaseHelper,
+    private val credentials: CredentialEngine
+) {
+
+    enum class Format { CSV, JSON }
+
+    // line is the 1-based CSV line or JSON array index of the offending record
+    class RowIssue(val line: Int, val username: String, val reason: String)
+
+    class ImportReport(val imported: Int, val conflicts: List<RowIssue>, val invalid: List<RowIssue>)
+
+    companion object {
+        const val BATCH_SIZE = 500
+
+        const val EXPORT_CSV_HEADER = "username,nickname,avatar,last_login"
+        const val EXPORT_VERSION = 1
+    }
+
+    private class Record(val line: Int, val username: String, val password: String, val nickname: String?)
+
+    // Throws IllegalArgumentException when input is an export rather than an import file
+    fun importUsers(input: InputStream, format: Format, acceptHashed: Boolean = false): ImportReport {
+        val conflicts = ArrayList<RowIssue>()
+        val invalid = ArrayList<RowIssue>()
+        var imported = 0
+        val hashPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors())
+        try {
+            val batch = ArrayList<Record>(BATCH_SIZE)
+            val flush = {
+                imported += insertBatch(batch, hashPool, conflicts)
+                batch.clear()
+            }
+            val accept = { record: Record ->
+                if (record.username.isEmpty() || record.password.isEmpty()) {
+                    invalid.add(RowIssue(record.line, record.username, "missing username or password"))
+                } else if (PasswordHasher.isHashed(record.password) && !acceptHashed) {
+                    invalid.add(RowIssue(record.line, record.username, "pre-hashed password not allowed"))
+                } else if (PasswordHasher.isHashed(record.password)
+                    && PasswordHasher.needsRehash(record.password, PasswordHasher.MIN_ITERATIONS)) {
+                    invalid.add(RowIssue(record.line, record.username, "pre-hashed password below minimum cost"))
+                } else {
+                    batch.add(record)
+                    if (batch.size == BATCH_SIZE) flush()
+                }
+            }
+            BufferedReader(InputStreamReader(input, Charsets.UTF_8)).use { reader ->
+                when (format) {
+                    Format.CSV -> readCsv(reader, accept)
+                    Format.JSON -> readJson(reader, accept)
+                }
+            }
+            if (batch.isNotEmpty()) flush()
+        } finally {
+            hashPool.shutdown()
+        }
+        return ImportReport(imported, conflicts, invalid)
+    }
+
+    // Writes username, nickname, avatar and last login for every account; password hashes
+    // never leave the device. Returns the number of rows written.
+    fun exportUsers(output: OutputStream, format: Format): Int {
+        var rows = 0
+        val writer = BufferedWriter(OutputStreamWriter(output, Charsets.UTF_8))
+        when (format) {
+            Format.CSV -> {
+                writer.write(EXPORT_CSV_HEADER)
+                writer.write("\n")
+                dbHelper.forEachProfile { profile ->
+                    writeCsvField(writer, profile.username)
+                    writer.write(",")
+                    writeCsvField(writer, profile.nickname)
+                    writer.write(",")
+                    writeCsvField(writer, profile.avatarUri ?: "")
+                    writer.write(",")
+                    writer.write(profile.lastLogin.toString())
+                    writer.write("\n")
+                    rows++
+                }
+            }
+            Format.JSON -> {
+                val json = JsonWriter(writer)
+                json.beginObject()
+                json.name("export_version").value(EXPORT_VERSION.toLong())
+                json.name("users")
+                json.beginArray()
+                dbHelper.forEachProfile { profile ->
+                    json.beginObject()
+                    json.name("username").value(profile.username)
+                    json.name("nickname").value(profile.nickname)
+                    json.name("avatar").value(profile.avatarUri)
+                    json.name("last_login").value(profile.lastLogin)
+                    json.endObject()
+                    rows++
+                }
+                json.endArray()
+                json.endObject()
+                json.flush()
+            }
+        }
+        writer.flush()
+        return rows
+    }
+
+    private fun insertBatch(
+        batch: List<Record>,
+        hashPool: ExecutorService,
+        conflicts: MutableList<RowIssue>
+    ): Int {
+        val hashes = hashPool.invokeAll(batch.map { record ->
+            Callable {
+                if (PasswordHasher.isHashed(record.password)) record.password
+                else credentials.hash(record.password)
+            }
+        })
+        val users = batch.mapIndexed { i, record ->
+            UserDatabaseHelper.NewUser(
+                record.username,
+                hashes[i].get(),
+                record.nickname?.ifEmpty { null } ?: record.username
+            )
+        }
+        val ids = dbHelper.insertUsers(users)
+        var inserted = 0
+        for (i in ids.indices) {
+            if (ids[i] == -1L) {
+                conflicts.add(RowIssue(batch[i].line, batch[i].username, "username already exists"))
+            } else {
+                inserted++
+            }
+        }
+        return inserted
+    }
+
+    private fun readJson(reader: BufferedReader, accept: (Record) -> Unit) {
+        val json = JsonReader(reader)
+        if (json.peek() != JsonToken.BEGIN_ARRAY) {
+            throw IllegalArgumentException("Not an import file; exports carry no passwords")
+        }
+        json.beginArray()
+        var index = 0
+        while (json.hasNext()) {
+            index++
+            var username = ""
+            var password = ""
+            var nickname: String? = null
+            json.beginObject()
+            while (json.hasNext()) {
+                val name = json.nextName()
+                if (json.peek() == JsonToken.NULL) {
+                    json.nextNull()
+                    continue
+                }
+                when (name) {
+                    "username" -> username = json.nextString().trim()
+                    "password" -> password = json.nextString()
+                    "nickname" -> nickname = json.nextString().trim()
+                    else -> json.skipValue()
+                }
+            }
+            json.endObject()
+            accept(Record(index, username, password, nickname))
+        }
+        json.endArray()
+    }
+
+    private fun readCsv(reader: BufferedReader, accept: (Record) -> Unit) {
+        var line = 0
+        while (true) {
+            val startLine = line + 1
+            val (fields, linesRead) = readCsvRecord(reader) ?: return
+            line += linesRead
+            if (fields.size == 1 && fields[0].isEmpty()) continue
+            if (startLine == 1 && fields[0].trim().equals("username", ignoreCase = true)) {
+                // Only the import layout; an export header would turn nicknames into passwords
+                if (!fields.getOrElse(1) { "" }.trim().equals("password", ignoreCase = true)) {
+                    throw IllegalArgumentException("Not an import file; exports carry no passwords")
+                }
+                continue
+            }
+            accept(Record(
+                startLine,
+                fields[0].trim(),
+                fields.getOrElse(1) { "" },
+                fields.getOrNull(2)?.trim()
+            ))
+        }
+    }
+
+    // One RFC 4180 record, which may span several lines inside quotes; null at end of input
+    private fun readCsvRecord(reader: BufferedReader): Pair<List<String>, Int>? {
+        var text = reader.readLine() ?: return null
+        var lines = 1
+        val fields = ArrayList<String>()
+        val field = StringBuilder()
+        var quoted = false
+        var i = 0
+        while (true) {
+            if (i == text.length) {
+                if (!quoted) break
+                // A quoted field continues on the next line
+                text = reader.readLine() ?: break
+                lines++
+                field.append('\n')
+                i = 0
+                continue
+            }
+            val c = text[i]
+            when {
+                quoted && c == '"' && i + 1 < text.length && text[i + 1] == '"' -> {
+                    field.append('"')
+                    i++
+                }
+                c == '"' -> quoted = !quoted
+                !quoted && c == ',' -> {
+                    fields.add(field.toString())
+                    field.setLength(0)
+                }
+                else -> field.append(c)
+            }
+            i++
+        }
+        fields.add(field.toString())
+        return Pair(fields, lines)
+    }
+
+    private fun writeCsvField(writer: Writer, value: String) {
+        if (value.any { it == ',' || it == '"' || it == '\n' || it == '\r' }) {
+            writer.write("\"")
+            writer.write(value.replace("\"", "\"\""))
+            writer.write("\"")
+        } else {
+            writer.write(value)
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.myapp
+
+import android.os.Handler
+import android.os.Looper
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+
+// Per-row change notifications for the users table. UserDatabaseHelper reports each
+// write once it has committed; observers get the row id and which columns changed,
+// so a screen can re-read just that row instead of reloading everything it shows.
+class UserChangeTracker {
+
+    class UserChange(val userId: Long, val changedColumns: Int) {
+        fun affects(columns: Int) = changedColumns and columns != 0
+    }
+
+    fun interface Observer {
+        // Always called on the main thread
+        fun onUserChanged(change: UserChange)
+    }
+
+    fun interface Subscription {
+        fun unsubscribe()
+    }
+
+    companion object {
+        const val INSERTED = 1
+        const val NICKNAME = 1 shl 1
+        const val AVATAR = 1 shl 2
+        const val LAST_LOGIN = 1 shl 3
+        const val PASSWORD = 1 shl 4
+
+        // Everything a screen showing a user cares about
+        const val PROFILE = NICKNAME or AVATAR or LAST_LOGIN
+    }
+
+    // Changes made inside a transaction, held back until it commits
+    private class Batch {
+        var depth = 0
+        var failed = false
+        val changes = LinkedHashMap<Long, Int>()
+    }
+
+    private val mainHandler = Handler(Looper.getMainLooper())
+    private val rowObservers = ConcurrentHashMap<Long, CopyOnWriteArrayList<Observer>>()
+    private val tableObservers = CopyOnWriteArrayList<Observer>()
+    private val batches = ThreadLocal<Batch>()
+
+    // Changes to one row only
+    fun observeUser(userId: Long, observer: Observer): Subscription {
+        synchronized(rowObservers) {
+            rowObservers.getOrPut(userId) { CopyOnWriteArrayList() }.add(observer)
+        }
+        return Subscription {
+            synchronized(rowObservers) {
+                val observers = rowObservers[userId] ?: return@Subscription
+                observers.remove(observer)
+                if (observers.isEmpty()) rowObservers.remove(userId)
+            }
+        }
+    }
+
+    // Changes to any row, e.g. for a list that shows many users
+    fun observeAll(observer: Observer): Subscription {
+        tableObservers.add(observer)
+        return Subscription { tableObservers.remove(observer) }
+    }
+
+    // Inside a batch the change is published when the outermost batch ends successfully;
+    // otherwise it must only be called after the write is committed
+    fun notifyChanged(userId: Long, changedColumns: Int) {
+        val batch = batches.get()
+        if (batch != null) {
+            batch.changes[userId] = (batch.changes[userId] ?: 0) or changedColumns
+            return
+        }
+        dispatch(userId, changedColumns)
+    }
+
+    // Brackets a transaction on the calling thread; batches may nest
+    fun beginBatch() {
+        val batch = batches.get() ?: Batch().also { batches.set(it) }
+        batch.depth++
+    }
+
+    fun endBatch(committed: Boolean) {
+        val batch = batches.get() ?: throw IllegalStateException("endBatch without beginBatch")
+        if (!committed) batch.failed = true
+        if (--batch.depth > 0) return
+        batches.remove()
+        if (!batch.failed) {
+            for ((userId, columns) in batch.changes) dispatch(userId, columns)
+        }
+    }
+
+    private fun dispatch(userId: Long, changedColumns: Int) {
+        val rowTargets = rowObservers[userId]
+        if (tableObservers.isEmpty() && rowTargets.isNullOrEmpty()) return
+        val change = UserChange(userId, changedColumns)
+        mainHandler.post {
+            rowTargets?.forEach { it.onUserChanged(change) }
+            tableObservers.forEach { it.onUserChanged(change) }
+        }
+    }
+}
@@ -5,13 +5,18 @@ import android.content.Context
 import android.database.Cursor
 import android.database.sqlite.SQLiteDatabase
 import android.database.sqlite.SQLiteOpenHelper
-import java.util.ArrayList
+import android.database.sqlite.SQLiteStatement
+import android.util.LruCache
+import java.io.Serializable
 
-class UserDatabaseHelper(context: Context) : SQLiteOpenHelper(context, DATABASE_NAME, null, DATABASE_VERSION) {
+class UserDatabaseHelper internal constructor(
+    context: Context,
+    name: String? = DATABASE_NAME
+) : SQLiteOpenHelper(context, name, null, DATABASE_VERSION) {
 
     companion object {
         private const val DATABASE_NAME = "User.db"
-        private const val DATABASE_VERSION = 5
+        private const val DATABASE_VERSION = 8
         const val TABLE_NAME = "users"
         const val COLUMN_ID = "id"
         const val COLUMN_USERNAME = "username"
@@ -19,6 +24,82 @@ class UserDatabaseHelper(context: Context) : SQLiteOpenHelper(context, DATABASE_
         const val COLUMN_NICKNAME = "nickname"
         const val COLUMN_AVATAR_URI = "avatar_uri"
         const val COLUMN_LAST_LOGIN = "last_login"
+        const val COLUMN_NICKNAME_INITIALS = "nickname_initials"
+        private const val INDEX_LAST_LOGIN = "idx_users_last_login"
+        const val SEARCH_TABLE = "users_search"
+
+        // Scalar subqueries always yield exactly one row, so simpleQueryFor* never
+        // throws SQLiteDoneException for a missing user. Only SQL_RESOLVE_ID goes through
+        // the username index; every other lookup is a rowid seek.
+        private const val SQL_RESOLVE_ID =
+            "SELECT IFNULL((SELECT $COLUMN_ID FROM $TABLE_NAME WHERE $COLUMN_USERNAME = ?), -1)"
+        private const val SQL_GET_PASSWORD =
+            "SELECT (SELECT $COLUMN_PASSWORD FROM $TABLE_NAME WHERE $COLUMN_ID = ?)"
+        private const val SQL_GET_NICKNAME =
+            "SELECT (SELECT IFNULL(NULLIF($COLUMN_NICKNAME, ''), $COLUMN_USERNAME) FROM $TABLE_NAME WHERE $COLUMN_ID = ?)"
+        private const val SQL_GET_AVATAR =
+            "SELECT (SELECT $COLUMN_AVATAR_URI FROM $TABLE_NAME WHERE $COLUMN_ID = ?)"
+        private const val SQL_SELECT_PROFILE =
+            "SELECT $COLUMN_ID, $COLUMN_USERNAME, $COLUMN_NICKNAME, $COLUMN_AVATAR_URI, $COLUMN_LAST_LOGIN FROM $TABLE_NAME"
+        // "last_login <= ?" bounds the index range; the OR then skips rows already shown
+        // that share the boundary timestamp.
+        private const val SQL_ACCOUNTS_PAGE =
+            "$SQL_SELECT_PROFILE WHERE $COLUMN_ID != ?" +
+                " AND $COLUMN_LAST_LOGIN <= ? AND ($COLUMN_LAST_LOGIN < ? OR $COLUMN_ID < ?)" +
+                " ORDER BY $COLUMN_LAST_LOGIN DESC, $COLUMN_ID DESC LIMIT "
+        // The FTS lookup yields the matching ids; the page itself is then read in recency
+        // order from idx_users_last_login exactly like SQL_ACCOUNTS_PAGE
+        private const val SQL_SEARCH_PAGE =
+            "$SQL_SELECT_PROFILE WHERE $COLUMN_ID IN (SELECT docid FROM $SEARCH_TABLE WHERE $SEARCH_TABLE MATCH ?)" +
+                " AND $COLUMN_ID != ?" +
+                " AND $COLUMN_LAST_LOGIN <= ? AND ($COLUMN_LAST_LOGIN < ? OR $COLUMN_ID < ?)" +
+                " ORDER BY $COLUMN_LAST_LOGIN DESC, $COLUMN_ID DESC LIMIT "
+        private const val SQL_LOGIN =
+            "$SQL_SELECT_PROFILE WHERE $COLUMN_ID = ? AND $COLUMN_PASSWORD = ?"
+        private const val SQL_INSERT_USER =
+            "INSERT OR IGNORE INTO $TABLE_NAME ($COLUMN_USERNAME, $COLUMN_PASSWORD, $COLUMN_NICKNAME," +
+                " $COLUMN_AVATAR_URI, $COLUMN_LAST_LOGIN, $COLUMN_NICKNAME_INITIALS) VALUES (?, ?, ?, ?, ?, ?)"
+        private const val SQL_EXPORT_PAGE =
+            "$SQL_SELECT_PROFILE WHERE $COLUMN_ID > ? ORDER BY $COLUMN_ID LIMIT $EXPORT_PAGE_SIZE"
+        private const val SQL_UPDATE_LAST_LOGIN =
+            "UPDATE $TABLE_NAME SET $COLUMN_LAST_LOGIN = ? WHERE $COLUMN_ID = ?"
+
+        private val NON_WORD = Regex("[^\\p{L}\\p{N}]+")
+
+        // Rows per page when streaming every profile
+        private const val EXPORT_PAGE_SIZE = 500
+
+        // Stays well under SQLITE_MAX_VARIABLE_NUMBER (999 on older platform builds)
+        private const val MAX_BATCH_ARGS = 500
+
+        // Far more accounts than one device switches between; each entry is a few dozen bytes
+        private const val ID_CACHE_SIZE = 1_024
+
+        @Volatile
+        private var instance: UserDatabaseHelper? = null
+
+        // One helper per process: the connection stays open and warm between calls,
+        // so callers must not close the database they get from it.
+        @JvmStatic
+        fun getInstance(context: Context): UserDatabaseHelper {
+            return instance ?: synchronized(this) {
+                instance ?: UserDatabaseHelper(context.applicationContext).also { instance = it }
+            }
+        }
+    }
+
+    private val statementCache = HashMap<String, SQLiteStatement>()
+
+    // username -> rowid. Rows are never deleted and usernames never change, so an entry
+    // stays valid for the life of the database; unknown usernames are not cached.
+    private val idCache = LruCache<String, Long>(ID_CACHE_SIZE)
+
+    // Every write below reports the rows it touched here once it has committed
+    val changeTracker = UserChangeTracker()
+
+    init {
+        // WAL lets reads run concurrently with a write instead of waiting on the file lock
+        setWriteAheadLoggingEnabled(true)
     }
 
     override fun onCreate(db: SQLiteDatabase) {
@@ -28,171 +109,371 @@ class UserDatabaseHelper(context: Context) : SQLiteOpenHelper(context, DATABASE_
                 + COLUMN_PASSWORD + " TEXT,"
                 + COLUMN_NICKNAME + " TEXT,"
                 + COLUMN_AVATAR_URI + " TEXT,"
-                + COLUMN_LAST_LOGIN + " INTEGER" + ")")
+                + COLUMN_LAST_LOGIN + " INTEGER,"
+                + COLUMN_NICKNAME_INITIALS + " TEXT" + ")")
         db.execSQL(createTable)
+        createLastLoginIndex(db)
+        createSearchIndex(db)
     }
 
     override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
-        db.execSQL("DROP TABLE IF EXISTS $TABLE_NAME")
-        onCreate(db)
+        // Compiled statements refer to the old schema, and a legacy rebuild may renumber rows
+        clearStatementCache()
+        idCache.evictAll()
+        UserDatabaseMigrations.migrate(db, oldVersion, newVersion)
     }
 
-    fun addUser(username: String, password: String): Long {
-        val db = this.writableDatabase
-        val values = ContentValues()
-        values.put(COLUMN_USERNAME, username)
-        values.put(COLUMN_PASSWORD, password)
-        values.put(COLUMN_NICKNAME, username) // Default nickname is username
-        values.put(COLUMN_LAST_LOGIN, System.currentTimeMillis())
-        
-        // Use insert with conflict strategy if needed, but simple insert throws or returns -1 on error
-        // However, to enforce unique username but allow dup nickname, UNIQUE constraint on username is key.
-        // We added UNIQUE to username in onCreate.
-        
-        try {
-            val id = db.insertOrThrow(TABLE_NAME, null, values)
-            db.close()
-            return id
-        } catch (e: Exception) {
-            db.close()
-            return -1
-        }
-    }
-
-    fun checkUser(username: String, password: String): Boolean {
-        val db = this.readableDatabase
-        val columns = arrayOf(COLUMN_ID)
-        val selection = "$COLUMN_USERNAME = ? AND $COLUMN_PASSWORD = ?"
-        val selectionArgs = arrayOf(username, password)
-        val cursor = db.query(TABLE_NAME, columns, selection, selectionArgs, null, null, null)
-        val count = cursor.count
-        cursor.close()
-        db.close()
-        return count > 0
+    // Covers every column the account list reads, so paging never touches the table itself
+    private fun createLastLoginIndex(db: SQLiteDatabase) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS $INDEX_LAST_LOGIN ON $TABLE_NAME("
+                + "$COLUMN_LAST_LOGIN DESC, $COLUMN_ID DESC, "
+                + "$COLUMN_USERNAME, $COLUMN_NICKNAME, $COLUMN_AVATAR_URI)")
+    }
+
+    // FTS4 over username, nickname and nickname_initials with prefix indexes for one to
+    // three characters, so incremental typing stays a direct index lookup. The table
+    // stores no text of its own (content=users); the triggers keep it in step with every
+    // insert, delete and name change, and ignore writes that only touch last_login.
+    private fun createSearchIndex(db: SQLiteDatabase) {
+        db.execSQL("CREATE VIRTUAL TABLE $SEARCH_TABLE USING fts4(content=\"$TABLE_NAME\", "
+                + "$COLUMN_USERNAME, $COLUMN_NICKNAME, $COLUMN_NICKNAME_INITIALS, prefix=\"1,2,3\")")
+        val columns = "$COLUMN_USERNAME, $COLUMN_NICKNAME, $COLUMN_NICKNAME_INITIALS"
+        val newValues = "new.$COLUMN_USERNAME, new.$COLUMN_NICKNAME, new.$COLUMN_NICKNAME_INITIALS"
+        db.execSQL("CREATE TRIGGER ${TABLE_NAME}_search_ai AFTER INSERT ON $TABLE_NAME BEGIN "
+                + "INSERT INTO $SEARCH_TABLE(docid, $columns) VALUES (new.$COLUMN_ID, $newValues); END")
+        db.execSQL("CREATE TRIGGER ${TABLE_NAME}_search_bd BEFORE DELETE ON $TABLE_NAME BEGIN "
+                + "DELETE FROM $SEARCH_TABLE WHERE docid = old.$COLUMN_ID; END")
+        db.execSQL("CREATE TRIGGER ${TABLE_NAME}_search_bu BEFORE UPDATE OF $columns ON $TABLE_NAME BEGIN "
+                + "DELETE FROM $SEARCH_TABLE WHERE docid = old.$COLUMN_ID; END")
+        db.execSQL("CREATE TRIGGER ${TABLE_NAME}_search_au AFTER UPDATE OF $columns ON $TABLE_NAME BEGIN "
+                + "INSERT INTO $SEARCH_TABLE(docid, $columns) VALUES (new.$COLUMN_ID, $newValues); END")
+    }
+
+    // One account for insertUsers(); passwordHash is a PasswordHasher value
+    class NewUser(
+        val username: String,
+        val passwordHash: String,
+        val nickname: String = username,
+        val avatarRef: String? = null,
+        val lastLogin: Long = System.currentTimeMillis()
+    )
+
+    // Returns the new row id, or -1 when the username is already taken
+    fun addUser(username: String, passwordHash: String): Long =
+        withStatement(SQL_INSERT_USER) { insertUser(it, NewUser(username, passwordHash)) }
+
+    // Inserts every row in one transaction through one compiled statement. A username that
+    // already exists is skipped rather than aborting the batch; its slot in the result is -1.
+    fun insertUsers(users: List<NewUser>): LongArray = inTransaction {
+        withStatement(SQL_INSERT_USER) { statement ->
+            LongArray(users.size) { insertUser(statement, users[it]) }
+        }
+    }
+
+    private fun insertUser(statement: SQLiteStatement, user: NewUser): Long {
+        // The UNIQUE constraint on username does the duplicate check; OR IGNORE turns a
+        // clash into -1 instead of an exception
+        statement.bindString(1, user.username)
+        statement.bindString(2, user.passwordHash)
+        statement.bindString(3, user.nickname)
+        if (user.avatarRef != null) statement.bindString(4, user.avatarRef) else statement.bindNull(4)
+        statement.bindLong(5, user.lastLogin)
+        val initials = PinyinInitials.of(user.nickname)
+        if (initials != null) statement.bindString(6, initials) else statement.bindNull(6)
+        val id = statement.executeInsert()
+        statement.clearBindings()
+        // Not put in idCache here: the insert may still be rolled back with its transaction
+        if (id != -1L) changeTracker.notifyChanged(id, UserChangeTracker.INSERTED)
+        return id
+    }
+
+    // The row id for username, or -1 when there is no such account. Callers resolve once
+    // and use the id for every later read and write.
+    fun resolveId(username: String): Long {
+        idCache.get(username)?.let { return it }
+        val id = withStatement(SQL_RESOLVE_ID) { statement ->
+            statement.bindString(1, username)
+            val id = statement.simpleQueryForLong()
+            statement.clearBindings()
+            id
+        }
+        if (id > 0) idCache.put(username, id)
+        return id
+    }
+
+    // The stored password hash (see PasswordHasher), or null for an unknown id
+    fun getPasswordHash(userId: Long): String? {
+        return withStatement(SQL_GET_PASSWORD) { statement ->
+            statement.bindLong(1, userId)
+            val hash = statement.simpleQueryForString()
+            statement.clearBindings()
+            hash
+        }
     }
     
-    fun updateLastLogin(username: String) {
+    @JvmOverloads
+    fun updateLastLogin(userId: Long, timestamp: Long = System.currentTimeMillis()): Boolean {
+        val count = withStatement(SQL_UPDATE_LAST_LOGIN) { statement ->
+            statement.bindLong(1, timestamp)
+            statement.bindLong(2, userId)
+            val count = statement.executeUpdateDelete()
+            statement.clearBindings()
+            count
+        }
+        if (count > 0) changeTracker.notifyChanged(userId, UserChangeTracker.LAST_LOGIN)
+        return count > 0
+    }
+
+    // The nickname, falling back to the username when none is set; null for an unknown id
+    fun getUserNickname(userId: Long): String? {
+        return withStatement(SQL_GET_NICKNAME) { statement ->
+            statement.bindLong(1, userId)
+            val nick = statement.simpleQueryForString()
+            statement.clearBindings()
+            nick
+        }
+    }
+
+    fun getUserAvatar(userId: Long): String? {
+        return withStatement(SQL_GET_AVATAR) { statement ->
+            statement.bindLong(1, userId)
+            val uri = statement.simpleQueryForString()
+            statement.clearBindings()
+            uri
+        }
+    }
+
+    // Runs block in one transaction; change events from inside it are only published
+    // once it has committed, and dropped if it rolls back
+    fun <T> inTransaction(block: () -> T): T {
         val db = this.writableDatabase
-        val values = ContentValues()
-        values.put(COLUMN_LAST_LOGIN, System.currentTimeMillis())
-        val selection = "$COLUMN_USERNAME = ?"
-        val selectionArgs = arrayOf(username)
-        db.update(TABLE_NAME, values, selection, selectionArgs)
-        db.close()
+        changeTracker.beginBatch()
+        var committed = false
+        try {
+            db.beginTransaction()
+            val result = try {
+                block().also { db.setTransactionSuccessful() }
+            } finally {
+                db.endTransaction()
+            }
+            committed = true
+            return result
+        } finally {
+            changeTracker.endBatch(committed)
+        }
+    }
+
+    // Hot lookups are compiled once and reused. A SQLiteStatement is not thread-safe,
+    // so block binds and executes while holding the statement's monitor. Inside a
+    // transaction a private statement is compiled instead: a thread holding the write
+    // connection must never wait for a monitor whose owner is waiting for that connection.
+    private inline fun <T> withStatement(sql: String, block: (SQLiteStatement) -> T): T {
+        val db = writableDatabase
+        if (db.inTransaction()) {
+            return db.compileStatement(sql).use(block)
+        }
+        val statement = compiledStatement(sql)
+        synchronized(statement) {
+            return block(statement)
+        }
+    }
+
+    private fun compiledStatement(sql: String): SQLiteStatement {
+        val db = writableDatabase
+        synchronized(statementCache) {
+            return statementCache.getOrPut(sql) { db.compileStatement(sql) }
+        }
+    }
+
+    private fun clearStatementCache() {
+        synchronized(statementCache) {
+            for (statement in statementCache.values) {
+                statement.close()
+            }
+            statementCache.clear()
+        }
+    }
+
+    override fun close() {
+        clearStatementCache()
+        super.close()
     }
     
-    fun isUserExists(username: String): Boolean {
-        val db = this.readableDatabase
-        val columns = arrayOf(COLUMN_ID)
-        val selection = "$COLUMN_USERNAME = ?"
-        val selectionArgs = arrayOf(username)
-        val cursor = db.query(TABLE_NAME, columns, selection, selectionArgs, null, null, null)
-        val count = cursor.count
+    // Serializable so a screen can hand the profile it already has to the next one
+    data class UserProfile(
+        val id: Long,
+        val username: String,
+        val nickname: String,
+        val avatarUri: String?,
+        val lastLogin: Long
+    ) : Serializable
+
+    // Completes a login whose password was verified against storedHash. In one transaction
+    // it checks that the hash is still current, stamps last_login, stores rehashed when
+    // given and returns the stamped profile; null if the password changed in the meantime.
+    // The verification itself is left to the caller so the slow hash never runs inside
+    // the write transaction.
+    fun login(userId: Long, storedHash: String, rehashed: String?): UserProfile? = inTransaction {
+        val cursor = readableDatabase.rawQuery(SQL_LOGIN, arrayOf(userId.toString(), storedHash))
+        val profile = if (cursor.moveToFirst()) readProfile(cursor) else null
         cursor.close()
-        db.close()
-        return count > 0
+        if (profile == null) return@inTransaction null
+        val now = System.currentTimeMillis()
+        updateLastLogin(userId, now)
+        if (rehashed != null) updateUserPassword(userId, rehashed)
+        profile.copy(lastLogin = now)
     }
-    
-    fun getUserNickname(username: String): String {
-        val db = this.readableDatabase
-        val columns = arrayOf(COLUMN_NICKNAME)
-        val selection = "$COLUMN_USERNAME = ?"
-        val selectionArgs = arrayOf(username)
-        val cursor = db.query(TABLE_NAME, columns, selection, selectionArgs, null, null, null)
-        var nickname = username
-        if (cursor.moveToFirst()) {
-            val nickIndex = cursor.getColumnIndex(COLUMN_NICKNAME)
-            if (nickIndex != -1) {
-                val nick = cursor.getString(nickIndex)
-                if (nick != null && nick.isNotEmpty()) {
-                    nickname = nick
-                }
+
+    // Everything a screen needs to show a user, read in one primary-key lookup
+    fun getUserProfile(userId: Long): UserProfile? {
+        val cursor = readableDatabase.rawQuery(
+            "$SQL_SELECT_PROFILE WHERE $COLUMN_ID = ?", arrayOf(userId.toString()))
+        val profile = if (cursor.moveToFirst()) readProfile(cursor) else null
+        cursor.close()
+        return profile
+    }
+
+    // Batched variant: one IN (...) query per chunk instead of one query per id. Unknown
+    // ids are simply missing from the result.
+    fun getUserProfiles(userIds: Collection<Long>): Map<Long, UserProfile> {
+        val result = HashMap<Long, UserProfile>(userIds.size * 2)
+        if (userIds.isEmpty()) return result
+        val db = readableDatabase
+        for (chunk in userIds.distinct().chunked(MAX_BATCH_ARGS)) {
+            val placeholders = chunk.joinToString(",") { "?" }
+            val cursor = db.rawQuery(
+                "$SQL_SELECT_PROFILE WHERE $COLUMN_ID IN ($placeholders)",
+                Array(chunk.size) { chunk[it].toString() })
+            while (cursor.moveToNext()) {
+                val profile = readProfile(cursor)
+                result[profile.id] = profile
             }
+            cursor.close()
         }
-        cursor.close()
-        db.close()
-        return nickname
-    }
-
-    fun getUserAvatar(username: String): String? {
-        val db = this.readableDatabase
-        val columns = arrayOf(COLUMN_AVATAR_URI)
-        val selection = "$COLUMN_USERNAME = ?"
-        val selectionArgs = arrayOf(username)
-        val cursor = db.query(TABLE_NAME, columns, selection, selectionArgs, null, null, null)
-        var uri: String? = null
-        if (cursor.moveToFirst()) {
-            val idx = cursor.getColumnIndex(COLUMN_AVATAR_URI)
-            if (idx != -1) {
-                uri = cursor.getString(idx)
+        return result
+    }
+
+    // Streams every profile in id order. Reads in id-keyset pages rather than through one
+    // cursor, which would re-run the query from the start each time its window refills.
+    fun forEachProfile(action: (UserProfile) -> Unit) {
+        var afterId = 0L
+        while (true) {
+            val cursor = readableDatabase.rawQuery(SQL_EXPORT_PAGE, arrayOf(afterId.toString()))
+            val rows = cursor.count
+            while (cursor.moveToNext()) {
+                val profile = readProfile(cursor)
+                afterId = profile.id
+                action(profile)
             }
+            cursor.close()
+            if (rows < EXPORT_PAGE_SIZE) return
+        }
+    }
+
+    // Column positions follow SQL_SELECT_PROFILE
+    private fun readProfile(cursor: Cursor): UserProfile {
+        val username = cursor.getString(1)
+        val nick = cursor.getString(2)
+        return UserProfile(
+            id = cursor.getLong(0),
+            username = username,
+            nickname = if (nick != null && nick.isNotEmpty()) nick else username,
+            avatarUri = cursor.getString(3),
+            lastLogin = cursor.getLong(4)
+        )
+    }
+
+    // One page of the account switcher, newest login first. The caller passes the
+    // (last_login, id) of the last row it already has, or Long.MAX_VALUE for both to
+    // start from the top; the query seeks on idx_users_last_login instead of sorting.
+    fun getAccountsPage(excludeId: Long, afterLastLogin: Long, afterId: Long, limit: Int): List<UserProfile> {
+        val cursor = readableDatabase.rawQuery(
+            SQL_ACCOUNTS_PAGE + limit,
+            arrayOf(excludeId.toString(), afterLastLogin.toString(), afterLastLogin.toString(), afterId.toString()))
+        val page = ArrayList<UserProfile>(cursor.count)
+        while (cursor.moveToNext()) {
+            page.add(readProfile(cursor))
         }
         cursor.close()
-        db.close()
-        return uri
+        return page
     }
     
-    // Simple data class for User Info
-    data class UserInfo(val username: String, val nickname: String, val avatarUri: String?, val lastLogin: Long)
-
-    fun getAllUsers(): List<UserInfo> {
-        val userList = ArrayList<UserInfo>()
-        val selectQuery = "SELECT * FROM $TABLE_NAME ORDER BY $COLUMN_LAST_LOGIN DESC"
-        val db = this.readableDatabase
-        val cursor = db.rawQuery(selectQuery, null)
-
-        if (cursor.moveToFirst()) {
-            do {
-                val usernameIdx = cursor.getColumnIndex(COLUMN_USERNAME)
-                val nicknameIdx = cursor.getColumnIndex(COLUMN_NICKNAME)
-                val avatarIdx = cursor.getColumnIndex(COLUMN_AVATAR_URI)
-                val lastLoginIdx = cursor.getColumnIndex(COLUMN_LAST_LOGIN)
-
-                if (usernameIdx != -1) {
-                    val username = cursor.getString(usernameIdx)
-                    val nickname = if (nicknameIdx != -1) cursor.getString(nicknameIdx) else username
-                    val avatarUri = if (avatarIdx != -1) cursor.getString(avatarIdx) else null
-                    val lastLogin = if (lastLoginIdx != -1) cursor.getLong(lastLoginIdx) else 0L
-                    
-                    userList.add(UserInfo(username, nickname, avatarUri, lastLogin))
-                }
-            } while (cursor.moveToNext())
+    // Accounts whose username, nickname or pinyin initials start with every word of query,
+    // newest login first, paged like getAccountsPage(). Empty when query has no words.
+    fun searchAccounts(
+        query: String,
+        excludeId: Long,
+        afterLastLogin: Long,
+        afterId: Long,
+        limit: Int
+    ): List<UserProfile> {
+        val match = buildMatchQuery(query) ?: return emptyList()
+        val cursor = readableDatabase.rawQuery(
+            SQL_SEARCH_PAGE + limit,
+            arrayOf(match, excludeId.toString(), afterLastLogin.toString(), afterLastLogin.toString(), afterId.toString()))
+        val page = ArrayList<UserProfile>(cursor.count)
+        while (cursor.moveToNext()) {
+            page.add(readProfile(cursor))
+        }
+        cursor.close()
+        return page
+    }
+
+    // Each word becomes a prefix term; punctuation splits words the same way the FTS
+    // tokenizer does, and nothing the user types can reach the MATCH syntax
+    private fun buildMatchQuery(query: String): String? {
+        val terms = query.lowercase().split(NON_WORD).filter { it.isNotEmpty() }
+        if (terms.isEmpty()) return null
+        return terms.joinToString(" ") { "$it*" }
+    }
+
+    // Rows whose avatar still points at another app's content
+    fun getExternalAvatars(): Map<Long, AvatarRef.External> {
+        val result = HashMap<Long, AvatarRef.External>()
+        val cursor = readableDatabase.rawQuery(
+            "SELECT $COLUMN_ID, $COLUMN_AVATAR_URI FROM $TABLE_NAME WHERE $COLUMN_AVATAR_URI LIKE 'c:%'",
+            null)
+        while (cursor.moveToNext()) {
+            val ref = AvatarRef.decode(cursor.getString(1))
+            if (ref is AvatarRef.External) {
+                result[cursor.getLong(0)] = ref
+            }
         }
         cursor.close()
-        db.close()
-        return userList
+        return result
     }
     
-    fun updateUserNickname(username: String, newNickname: String): Boolean {
+    fun updateUserNickname(userId: Long, newNickname: String): Boolean {
         val db = this.writableDatabase
         val values = ContentValues()
         values.put(COLUMN_NICKNAME, newNickname)
-        val selection = "$COLUMN_USERNAME = ?"
-        val selectionArgs = arrayOf(username)
+        values.put(COLUMN_NICKNAME_INITIALS, PinyinInitials.of(newNickname))
+        val selection = "$COLUMN_ID = ?"
+        val selectionArgs = arrayOf(userId.toString())
         val count = db.update(TABLE_NAME, values, selection, selectionArgs)
-        db.close()
+        if (count > 0) changeTracker.notifyChanged(userId, UserChangeTracker.NICKNAME)
         return count > 0
     }
     
-    fun updateUserPassword(username: String, newPassword: String): Boolean {
+    fun updateUserPassword(userId: Long, passwordHash: String): Boolean {
         val db = this.writableDatabase
         val values = ContentValues()
-        values.put(COLUMN_PASSWORD, newPassword)
-        val selection = "$COLUMN_USERNAME = ?"
-        val selectionArgs = arrayOf(username)
+        values.put(COLUMN_PASSWORD, passwordHash)
+        val selection = "$COLUMN_ID = ?"
+        val selectionArgs = arrayOf(userId.toString())
         val count = db.update(TABLE_NAME, values, selection, selectionArgs)
-        db.close()
+        if (count > 0) changeTracker.notifyChanged(userId, UserChangeTracker.PASSWORD)
         return count > 0
     }
 
-    fun updateUserAvatar(username: String, avatarUri: String): Boolean {
+    fun updateUserAvatar(userId: Long, avatarUri: String): Boolean {
         val db = this.writableDatabase
         val values = ContentValues()
         values.put(COLUMN_AVATAR_URI, avatarUri)
-        val selection = "$COLUMN_USERNAME = ?"
-        val selectionArgs = arrayOf(username)
+        val selection = "$COLUMN_ID = ?"
+        val selectionArgs = arrayOf(userId.toString())
         val count = db.update(TABLE_NAME, values, selection, selectionArgs)
-        db.close()
+        if (count > 0) changeTracker.notifyChanged(userId, UserChangeTracker.AVATAR)
         return count > 0
     }
 }
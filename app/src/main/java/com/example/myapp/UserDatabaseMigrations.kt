@@ -0,0 +1,208 @@
+package com.example.myapp
+
+import android.database.sqlite.SQLiteDatabase
+import android.icu.text.Transliterator
+import android.net.Uri
+import android.os.Build
+import android.os.SystemClock
+import android.util.Log
+
+// One schema step of User.db. Each migration keeps its own SQL, frozen at the schema it
+// targets, so later changes to UserDatabaseHelper never alter what an old step does.
+abstract class Migration(val startVersion: Int, val endVersion: Int) {
+    abstract fun migrate(db: SQLiteDatabase)
+}
+
+// Ordered, incremental upgrades for User.db. SQLiteOpenHelper already runs onUpgrade
+// inside one transaction, so a failed step rolls the whole upgrade back and the next
+// open retries it. Steps that touch every row work in keyset batches of BATCH_SIZE so
+// neither the cursor window nor the statement journal grows with the table.
+object UserDatabaseMigrations {
+
+    private const val TAG = "UserDbMigrations"
+    private const val TABLE = "users"
+    const val BATCH_SIZE = 2_000
+
+    // Versions 1 to 4 predate any upgrade code and their exact columns are unknown, so
+    // they share one step: rebuild the table in the version 5 layout and copy over
+    // whichever of its columns the old table has.
+    private val LEGACY_TO_5 = object : Migration(1, 5) {
+        override fun migrate(db: SQLiteDatabase) {
+            val createV5 = "CREATE TABLE %s(id INTEGER PRIMARY KEY AUTOINCREMENT, username TEXT UNIQUE," +
+                " password TEXT, nickname TEXT, avatar_uri TEXT, last_login INTEGER)"
+            val existing = columnsOf(db, TABLE)
+            if (existing.isEmpty()) {
+                db.execSQL(createV5.format(TABLE))
+                return
+            }
+            val copied = listOf("id", "username", "password", "nickname", "avatar_uri", "last_login")
+                .filter { it in existing }
+            if ("username" !in copied) {
+                // Nothing identifies an account; there is nothing worth keeping
+                db.execSQL("DROP TABLE $TABLE")
+                db.execSQL(createV5.format(TABLE))
+                return
+            }
+            db.execSQL("DROP TABLE IF EXISTS ${TABLE}_v5")
+            db.execSQL(createV5.format("${TABLE}_v5"))
+            val columnList = copied.joinToString(", ")
+            // OR IGNORE keeps the first of any duplicate usernames an old schema allowed
+            val copy = db.compileStatement(
+                "INSERT OR IGNORE INTO ${TABLE}_v5 ($columnList) SELECT $columnList FROM $TABLE" +
+                    " WHERE rowid BETWEEN ? AND ?")
+            val (minRowId, maxRowId) = rowIdRange(db, TABLE)
+            var start = minRowId
+            while (start <= maxRowId) {
+                copy.bindLong(1, start)
+                copy.bindLong(2, start + BATCH_SIZE - 1)
+                copy.executeInsert()
+                start += BATCH_SIZE
+            }
+            copy.close()
+            db.execSQL("UPDATE ${TABLE}_v5 SET nickname = username WHERE nickname IS NULL OR nickname = ''")
+            db.execSQL("UPDATE ${TABLE}_v5 SET last_login = 0 WHERE last_login IS NULL")
+            db.execSQL("DROP TABLE $TABLE")
+            db.execSQL("ALTER TABLE ${TABLE}_v5 RENAME TO $TABLE")
+        }
+    }
+
+    // Covering index for the keyset-paged account list
+    private val MIGRATION_5_6 = object : Migration(5, 6) {
+        override fun migrate(db: SQLiteDatabase) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS idx_users_last_login ON $TABLE("
+                + "last_login DESC, id DESC, username, nickname, avatar_uri)")
+        }
+    }
+
+    // Typed avatar values instead of raw URI strings: "r:<resource id>", "f:<file name>"
+    // and "c:<content uri>". A value this step cannot read is left as it was.
+    private val MIGRATION_6_7 = object : Migration(6, 7) {
+        // The version 7 encoding of a version 6 value; null when there is nothing to rewrite
+        private fun typedValue(stored: String): String? {
+            if (stored.length > 2 && stored[1] == ':' && stored[0] in "rfc") return null
+            val uri = Uri.parse(stored)
+            return when (uri.scheme) {
+                "android.resource" -> uri.lastPathSegment?.toIntOrNull()?.let { "r:$it" }
+                "file" -> uri.lastPathSegment?.let { "f:$it" }
+                "content" -> "c:$stored"
+                else -> null
+            }
+        }
+
+        override fun migrate(db: SQLiteDatabase) {
+            val update = db.compileStatement("UPDATE $TABLE SET avatar_uri = ? WHERE id = ?")
+            var afterId = 0L
+            while (true) {
+                val cursor = db.rawQuery(
+                    "SELECT id, avatar_uri FROM $TABLE WHERE avatar_uri IS NOT NULL AND id > ?" +
+                        " ORDER BY id LIMIT $BATCH_SIZE",
+                    arrayOf(afterId.toString()))
+                val rows = cursor.count
+                while (cursor.moveToNext()) {
+                    afterId = cursor.getLong(0)
+                    val typed = typedValue(cursor.getString(1)) ?: continue
+                    update.bindString(1, typed)
+                    update.bindLong(2, afterId)
+                    update.executeUpdateDelete()
+                }
+                cursor.close()
+                if (rows < BATCH_SIZE) break
+            }
+            update.close()
+        }
+    }
+
+    // Full-text search over username, nickname and the new pinyin-initials column
+    private val MIGRATION_7_8 = object : Migration(7, 8) {
+        // Pinyin initials as version 8 defined them: the first letter of each Han-Latin
+        // syllable, lowercased; null without Chinese characters or a transliterator
+        private fun initials(transliterator: Transliterator?, nickname: String?): String? {
+            if (transliterator == null || nickname.isNullOrEmpty()
+                || nickname.none { Character.UnicodeScript.of(it.code) == Character.UnicodeScript.HAN }) {
+                return null
+            }
+            return transliterator.transliterate(nickname).split(' ')
+                .mapNotNull { syllable -> syllable.firstOrNull { it.isLetterOrDigit() }?.lowercaseChar() }
+                .joinToString("")
+                .ifEmpty { null }
+        }
+
+        override fun migrate(db: SQLiteDatabase) {
+            db.execSQL("ALTER TABLE $TABLE ADD COLUMN nickname_initials TEXT")
+            // ICU has Han-Latin from API 29; older devices get no initials
+            val transliterator = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                try {
+                    Transliterator.getInstance("Han-Latin; Latin-ASCII")
+                } catch (e: Exception) {
+                    null
+                }
+            } else {
+                null
+            }
+            // Initials come from ICU, not SQL, so existing rows are filled in here
+            val update = db.compileStatement("UPDATE $TABLE SET nickname_initials = ? WHERE id = ?")
+            var afterId = 0L
+            while (true) {
+                val cursor = db.rawQuery(
+                    "SELECT id, nickname FROM $TABLE WHERE id > ? ORDER BY id LIMIT $BATCH_SIZE",
+                    arrayOf(afterId.toString()))
+                val rows = cursor.count
+                while (cursor.moveToNext()) {
+                    afterId = cursor.getLong(0)
+                    val initials = initials(transliterator, cursor.getString(1)) ?: continue
+                    update.bindString(1, initials)
+                    update.bindLong(2, afterId)
+                    update.executeUpdateDelete()
+                }
+                cursor.close()
+                if (rows < BATCH_SIZE) break
+            }
+            update.close()
+
+            db.execSQL("CREATE VIRTUAL TABLE users_search USING fts4(content=\"$TABLE\","
+                + " username, nickname, nickname_initials, prefix=\"1,2,3\")")
+            db.execSQL("INSERT INTO users_search(users_search) VALUES ('rebuild')")
+            db.execSQL("CREATE TRIGGER users_search_ai AFTER INSERT ON $TABLE BEGIN"
+                + " INSERT INTO users_search(docid, username, nickname, nickname_initials)"
+                + " VALUES (new.id, new.username, new.nickname, new.nickname_initials); END")
+            db.execSQL("CREATE TRIGGER users_search_bd BEFORE DELETE ON $TABLE BEGIN"
+                + " DELETE FROM users_search WHERE docid = old.id; END")
+            db.execSQL("CREATE TRIGGER users_search_bu BEFORE UPDATE OF username, nickname, nickname_initials"
+                + " ON $TABLE BEGIN DELETE FROM users_search WHERE docid = old.id; END")
+            db.execSQL("CREATE TRIGGER users_search_au AFTER UPDATE OF username, nickname, nickname_initials"
+                + " ON $TABLE BEGIN INSERT INTO users_search(docid, username, nickname, nickname_initials)"
+                + " VALUES (new.id, new.username, new.nickname, new.nickname_initials); END")
+        }
+    }
+
+    val ALL: List<Migration> = listOf(LEGACY_TO_5, MIGRATION_5_6, MIGRATION_6_7, MIGRATION_7_8)
+
+    // Applies every step from oldVersion up to newVersion in order
+    fun migrate(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+        var version = oldVersion
+        while (version < newVersion) {
+            val step = ALL.firstOrNull { version >= it.startVersion && version < it.endVersion }
+                ?: throw IllegalStateException("No migration from version $version to $newVersion")
+            val start = SystemClock.elapsedRealtime()
+            step.migrate(db)
+            Log.i(TAG, "Migrated $version -> ${step.endVersion} in ${SystemClock.elapsedRealtime() - start}ms")
+            version = step.endVersion
+        }
+    }
+
+    private fun columnsOf(db: SQLiteDatabase, table: String): Set<String> {
+        val columns = HashSet<String>()
+        db.rawQuery("PRAGMA table_info($table)", null).use { cursor ->
+            val nameIndex = cursor.getColumnIndexOrThrow("name")
+            while (cursor.moveToNext()) columns.add(cursor.getString(nameIndex))
+        }
+        return columns
+    }
+
+    private fun rowIdRange(db: SQLiteDatabase, table: String): Pair<Long, Long> {
+        db.rawQuery("SELECT IFNULL(MIN(rowid), 1), IFNULL(MAX(rowid), 0) FROM $table", null).use { cursor ->
+            cursor.moveToFirst()
+            return Pair(cursor.getLong(0), cursor.getLong(1))
+        }
+    }
+}
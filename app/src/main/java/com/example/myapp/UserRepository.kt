@@ -0,0 +1,240 @@
+package com.example.myapp
+
+import android.content.Context
+import android.net.Uri
+import android.util.Log
+import android.os.Handler
+import android.os.Looper
+import java.util.concurrent.Executors
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+// Asynchronous front for UserDatabaseHelper. Every read and write runs on a small
+// bounded pool and results come back on the main thread, so activities never touch
+// the database from the UI thread. Last-login and profile updates go through
+// UserWriteQueue, which batches them; reads here always include those pending updates.
+class UserRepository private constructor(context: Context) {
+
+    fun interface Callback<T> {
+        // Always called on the main thread
+        fun onResult(result: T)
+    }
+
+    companion object {
+        private const val TAG = "UserRepository"
+        private const val IO_THREADS = 2
+        private const val KEEP_ALIVE_SECONDS = 30L
+
+        @Volatile
+        private var instance: UserRepository? = null
+
+        @JvmStatic
+        fun getInstance(context: Context): UserRepository {
+            return instance ?: synchronized(this) {
+                instance ?: UserRepository(context.applicationContext).also { instance = it }
+            }
+        }
+    }
+
+    private val dbHelper = UserDatabaseHelper.getInstance(context)
+    private val writeQueue = UserWriteQueue.getInstance(context)
+    private val credentials = CredentialEngine.getInstance(context)
+    private val contentResolver = context.contentResolver
+    private val avatarCache = AvatarCache.getInstance(context)
+    private val bulkTransfer = UserBulkTransfer(dbHelper, credentials)
+
+    // Imports and exports can run for minutes; they get their own thread so the pool
+    // above stays free for the screens
+    private val bulkExecutor = Executors.newSingleThreadExecutor { r -> Thread(r, "user-db-bulk") }
+    private val mainHandler = Handler(Looper.getMainLooper())
+
+    private val executor = ThreadPoolExecutor(
+        IO_THREADS, IO_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        LinkedBlockingQueue(),
+        object : ThreadFactory {
+            private val count = AtomicInteger()
+            override fun newThread(r: Runnable) = Thread(r, "user-db-" + count.incrementAndGet())
+        }
+    ).apply { allowCoreThreadTimeOut(true) }
+
+    // Screens often ask for the same profile at once (the auth screen opening over the
+    // personal center, several rows of one user binding); those share one query. Keyed by
+    // the write queue's generation too, so no caller is handed a read older than the last
+    // profile write it could have seen.
+    private val profileReads = SingleFlight<Pair<Long, Long>, UserDatabaseHelper.UserProfile?>(executor) { key, e ->
+        Log.e(TAG, "Profile read for user ${key.first} failed", e)
+    }
+
+    // Creates the built-in admin account on a fresh install. Also runs the one-off hash
+    // calibration at startup rather than on the first login.
+    fun ensureDefaultAccount() {
+        executor.execute {
+            credentials.iterations
+            if (dbHelper.resolveId("admin") < 0) {
+                dbHelper.addUser("admin", credentials.hash("123456"))
+            }
+        }
+    }
+
+    // Verifies, stamps last_login and returns the profile; null for wrong credentials.
+    // Rows still holding a plaintext or weaker hash are rehashed on success.
+    fun login(username: String, password: String, callback: Callback<UserDatabaseHelper.UserProfile?>) {
+        submit(callback) {
+            val userId = dbHelper.resolveId(username)
+            val stored = if (userId > 0) dbHelper.getPasswordHash(userId) else null
+            // verify() also spends the full hash cost on an unknown username
+            if (!credentials.verify(password, stored) || stored == null) {
+                null
+            } else {
+                val rehashed = if (credentials.needsRehash(stored)) credentials.hash(password) else null
+                writeQueue.login(userId, stored, rehashed)
+            }
+        }
+    }
+
+    // The row id every other call here takes, or -1 when there is no such account.
+    // Only needed where nothing but the username is known, e.g. a session saved by an
+    // older version of the app.
+    fun resolveUserId(username: String, callback: Callback<Long>) {
+        submit(callback) { dbHelper.resolveId(username) }
+    }
+
+    // Returns the new row id, or -1 when the username is already taken
+    fun addUser(username: String, password: String, callback: Callback<Long>) {
+        submit(callback) { dbHelper.addUser(username, credentials.hash(password)) }
+    }
+
+    // Stamped now, written with the next batch
+    fun updateLastLogin(userId: Long) {
+        writeQueue.updateLastLogin(userId)
+    }
+
+    // Null in the callback for an unknown id, and when the read failed
+    fun getUserProfile(userId: Long, callback: Callback<UserDatabaseHelper.UserProfile?>) {
+        profileReads.load(Pair(userId, writeQueue.writeGeneration), { writeQueue.getUserProfile(userId) }) {
+            deliver(callback, it)
+        }
+    }
+
+    // One query for many rows, e.g. every account row a commit touched
+    fun getUserProfiles(userIds: Collection<Long>, callback: Callback<Map<Long, UserDatabaseHelper.UserProfile>>) {
+        submit(callback) { writeQueue.getUserProfiles(userIds) }
+    }
+
+    // How many profile reads ran against the database and how many joined one already in flight
+    fun profileReadStats(): SingleFlight.Stats = profileReads.stats()
+
+    fun getAccountsPage(
+        excludeId: Long,
+        afterLastLogin: Long,
+        afterId: Long,
+        limit: Int,
+        callback: Callback<List<UserDatabaseHelper.UserProfile>>
+    ) {
+        submit(callback) {
+            // The page is ordered by last_login, so pending logins have to be in the table first
+            writeQueue.flush()
+            dbHelper.getAccountsPage(excludeId, afterLastLogin, afterId, limit)
+        }
+    }
+
+    // Same paging contract as getAccountsPage, restricted to accounts matching query
+    fun searchAccounts(
+        query: String,
+        excludeId: Long,
+        afterLastLogin: Long,
+        afterId: Long,
+        limit: Int,
+        callback: Callback<List<UserDatabaseHelper.UserProfile>>
+    ) {
+        submit(callback) {
+            // Pending nickname changes have to reach the index before it is searched
+            writeQueue.flush()
+            dbHelper.searchAccounts(query, excludeId, afterLastLogin, afterId, limit)
+        }
+    }
+
+    @JvmOverloads
+    fun updateUserNickname(userId: Long, nickname: String, callback: Callback<Boolean>? = null) {
+        writeQueue.updateNickname(userId, nickname, callback?.let { c -> { result: Boolean -> deliver(c, result) } })
+    }
+
+    @JvmOverloads
+    fun updateUserPassword(userId: Long, password: String, callback: Callback<Boolean>? = null) {
+        submit(callback) { dbHelper.updateUserPassword(userId, credentials.hash(password)) }
+    }
+
+    @JvmOverloads
+    fun updateUserAvatar(userId: Long, avatarRef: String, callback: Callback<Boolean>? = null) {
+        executor.execute {
+            // Includes a pending avatar, which may already have been shown and cached
+            val previous = writeQueue.getUserProfile(userId)?.avatarUri
+            writeQueue.updateAvatar(userId, avatarRef) { committed ->
+                if (committed) {
+                    // Cached thumbnails go only once the change is committed. The new ref
+                    // may point at content that changed since it was last cached.
+                    avatarCache.invalidate(AvatarRef.decode(previous))
+                    avatarCache.invalidate(AvatarRef.decode(avatarRef))
+                }
+                if (callback != null) deliver(callback, committed)
+            }
+        }
+    }
+
+    // Null in the callback when the source could not be read or is an export file.
+    // acceptHashed lets rows carry PasswordHasher hashes, e.g. moved from another device.
+    @JvmOverloads
+    fun importUsers(
+        source: Uri,
+        format: UserBulkTransfer.Format,
+        callback: Callback<UserBulkTransfer.ImportReport?>,
+        acceptHashed: Boolean = false
+    ) {
+        bulkExecutor.execute {
+            val report = try {
+                contentResolver.openInputStream(source)?.use { bulkTransfer.importUsers(it, format, acceptHashed) }
+            } catch (e: Exception) {
+                Log.e(TAG, "Import from $source failed", e)
+                null
+            }
+            deliver(callback, report)
+        }
+    }
+
+    // Number of accounts written, or -1 when the target could not be written
+    fun exportUsers(target: Uri, format: UserBulkTransfer.Format, callback: Callback<Int>) {
+        bulkExecutor.execute {
+            writeQueue.flush()
+            val rows = try {
+                contentResolver.openOutputStream(target)?.use { bulkTransfer.exportUsers(it, format) } ?: -1
+            } catch (e: Exception) {
+                Log.e(TAG, "Export to $target failed", e)
+                -1
+            }
+            deliver(callback, rows)
+        }
+    }
+
+    // Observers are called on the main thread after the write has committed
+    fun observeUser(userId: Long, observer: UserChangeTracker.Observer): UserChangeTracker.Subscription =
+        dbHelper.changeTracker.observeUser(userId, observer)
+
+    fun observeUsers(observer: UserChangeTracker.Observer): UserChangeTracker.Subscription =
+        dbHelper.changeTracker.observeAll(observer)
+
+    private fun <T> submit(callback: Callback<T>?, work: () -> T) {
+        executor.execute {
+            val result = work()
+            if (callback != null) {
+                deliver(callback, result)
+            }
+        }
+    }
+
+    private fun <T> deliver(callback: Callback<T>, result: T) {
+        mainHandler.post { callback.onResult(result) }
+    }
+}
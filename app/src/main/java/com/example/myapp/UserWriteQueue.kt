@@ -0,0 +1,214 @@
+package com.example.myapp
+
+import android.content.ComponentCallbacks2
+import android.content.Context
+import android.content.res.Configuration
+import android.util.Log
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.write
+
+// Single writer in front of UserDatabaseHelper for last-login and profile updates.
+// Repeated updates to the same row are merged, the latest value winning, and everything
+// pending is committed together in one transaction shortly after the first enqueue,
+// instead of one fsync per login or account switch. Pending writes are flushed when the
+// app leaves the foreground, and reads through this class always include them.
+// A batch whose transaction fails goes back into pending and is retried with backoff;
+// only after MAX_RETRIES failed attempts in a row are its updates given up on.
+class UserWriteQueue private constructor(context: Context) : ComponentCallbacks2 {
+
+    companion object {
+        private const val TAG = "UserWriteQueue"
+        private const val FLUSH_DELAY_MS = 250L
+        private const val MAX_RETRIES = 5
+
+        @Volatile
+        private var instance: UserWriteQueue? = null
+
+        @JvmStatic
+        fun getInstance(context: Context): UserWriteQueue {
+            return instance ?: synchronized(this) {
+                instance ?: UserWriteQueue(context.applicationContext).also { instance = it }
+            }
+        }
+    }
+
+    private class PendingUpdate {
+        var lastLogin: Long? = null
+        var nickname: String? = null
+        var avatarRef: String? = null
+        val callbacks = ArrayList<(Boolean) -> Unit>()
+    }
+
+    private val dbHelper = UserDatabaseHelper.getInstance(context)
+    private val writer: ScheduledExecutorService =
+        Executors.newSingleThreadScheduledExecutor { r -> Thread(r, "user-db-writer") }
+
+    // Guarded by this
+    private val pending = LinkedHashMap<Long, PendingUpdate>()
+    private var flushScheduled = false
+    // Failed flushes since the last one that committed
+    private var failedFlushes = 0
+
+    // Held for writing while a batch is taken out of pending and committed, so a reader
+    // never sees it in neither place
+    private val flushLock = ReentrantReadWriteLock()
+
+    // Bumped by every profile write that goes through here, before it becomes visible
+    // to getUserProfile; a read started under an older value may be out of date
+    private val generation = AtomicLong()
+
+    val writeGeneration: Long
+        get() = generation.get()
+
+    init {
+        context.registerComponentCallbacks(this)
+    }
+
+    @JvmOverloads
+    fun updateLastLogin(userId: Long, timestamp: Long = System.currentTimeMillis()) {
+        enqueue(userId, null) { it.lastLogin = timestamp }
+    }
+
+    // onCommitted runs on the writer thread once the update is committed
+    fun updateNickname(userId: Long, nickname: String, onCommitted: ((Boolean) -> Unit)?) {
+        enqueue(userId, onCommitted) { it.nickname = nickname }
+    }
+
+    fun updateAvatar(userId: Long, avatarRef: String, onCommitted: ((Boolean) -> Unit)?) {
+        enqueue(userId, onCommitted) { it.avatarRef = avatarRef }
+    }
+
+    // The stored profile with any pending updates applied
+    fun getUserProfile(userId: Long): UserDatabaseHelper.UserProfile? {
+        flushLock.read {
+            val profile = dbHelper.getUserProfile(userId) ?: return null
+            return withPending(profile)
+        }
+    }
+
+    // Batched getUserProfile(); unknown ids are missing from the result
+    fun getUserProfiles(userIds: Collection<Long>): Map<Long, UserDatabaseHelper.UserProfile> {
+        flushLock.read {
+            return dbHelper.getUserProfiles(userIds).mapValues { withPending(it.value) }
+        }
+    }
+
+    private fun withPending(profile: UserDatabaseHelper.UserProfile): UserDatabaseHelper.UserProfile {
+        val update = synchronized(this) {
+            val update = pending[profile.id] ?: return profile
+            Triple(update.lastLogin, update.nickname, update.avatarRef)
+        }
+        val (lastLogin, nickname, avatarRef) = update
+        return profile.copy(
+            nickname = nickname?.ifEmpty { profile.username } ?: profile.nickname,
+            avatarUri = avatarRef ?: profile.avatarUri,
+            lastLogin = lastLogin ?: profile.lastLogin
+        )
+    }
+
+    // Pending updates are committed first, so the login's timestamp is the one that sticks
+    fun login(userId: Long, storedHash: String, rehashed: String?): UserDatabaseHelper.UserProfile? {
+        flushLock.write {
+            flush()
+            generation.incrementAndGet()
+            return dbHelper.login(userId, storedHash, rehashed)
+        }
+    }
+
+    // Commits everything pending on the calling thread. Queries whose row set or order
+    // depends on pending values (e.g. paging by last_login) call this before reading.
+    fun flush() {
+        flushLock.write {
+            val batch = synchronized(this) {
+                flushScheduled = false
+                if (pending.isEmpty()) return
+                LinkedHashMap(pending).also { pending.clear() }
+            }
+            val results = HashMap<Long, Boolean>()
+            try {
+                dbHelper.inTransaction {
+                    for ((userId, update) in batch) {
+                        var updated = true
+                        update.lastLogin?.let { updated = dbHelper.updateLastLogin(userId, it) && updated }
+                        update.nickname?.let { updated = dbHelper.updateUserNickname(userId, it) && updated }
+                        update.avatarRef?.let { updated = dbHelper.updateUserAvatar(userId, it) && updated }
+                        results[userId] = updated
+                    }
+                }
+                synchronized(this) { failedFlushes = 0 }
+            } catch (e: Exception) {
+                if (requeue(batch)) {
+                    Log.w(TAG, "Could not write ${batch.size} pending user updates; will retry", e)
+                    return
+                }
+                Log.e(TAG, "Giving up on ${batch.size} pending user updates", e)
+                results.clear()
+            }
+            for ((userId, update) in batch) {
+                val updated = results[userId] ?: false
+                update.callbacks.forEach { it(updated) }
+            }
+        }
+    }
+
+    // Puts a failed batch back under anything enqueued since, newer values winning, and
+    // schedules the retry. False once the batch has failed MAX_RETRIES times.
+    private fun requeue(batch: Map<Long, PendingUpdate>): Boolean {
+        synchronized(this) {
+            failedFlushes++
+            if (failedFlushes > MAX_RETRIES) {
+                failedFlushes = 0
+                return false
+            }
+            for ((userId, failed) in batch) {
+                val newer = pending[userId]
+                if (newer != null) {
+                    newer.lastLogin = newer.lastLogin ?: failed.lastLogin
+                    newer.nickname = newer.nickname ?: failed.nickname
+                    newer.avatarRef = newer.avatarRef ?: failed.avatarRef
+                    newer.callbacks.addAll(0, failed.callbacks)
+                } else {
+                    pending[userId] = failed
+                }
+            }
+            if (!flushScheduled) {
+                flushScheduled = true
+                val delay = FLUSH_DELAY_MS shl failedFlushes
+                writer.schedule({ flush() }, delay, TimeUnit.MILLISECONDS)
+            }
+            return true
+        }
+    }
+
+    private fun enqueue(userId: Long, onCommitted: ((Boolean) -> Unit)?, change: (PendingUpdate) -> Unit) {
+        synchronized(this) {
+            generation.incrementAndGet()
+            val update = pending.getOrPut(userId) { PendingUpdate() }
+            change(update)
+            if (onCommitted != null) update.callbacks.add(onCommitted)
+            if (!flushScheduled) {
+                flushScheduled = true
+                writer.schedule({ flush() }, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS)
+            }
+        }
+    }
+
+    override fun onTrimMemory(level: Int) {
+        // UI_HIDDEN is the first signal that the app went to the background, where it
+        // may be killed without further notice
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            writer.execute { flush() }
+        }
+    }
+
+    override fun onConfigurationChanged(newConfig: Configuration) {}
+
+    override fun onLowMemory() {
+        writer.execute { flush() }
+    }
+}
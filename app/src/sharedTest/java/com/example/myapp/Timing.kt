@@ -0,0 +1,17 @@
+package com.example.myapp
+
+// Shared by the host and the instrumented benchmarks (src/sharedTest is added to both
+// source sets in build.gradle.kts).
+
+// Median wall time of samples runs of block, in microseconds. The median rather than the
+// mean, so one GC pause or scheduler hiccup does not move the result.
+fun medianMicros(samples: Int, block: () -> Unit): Long {
+    val times = LongArray(samples)
+    for (i in 0 until samples) {
+        val start = System.nanoTime()
+        block()
+        times[i] = (System.nanoTime() - start) / 1000
+    }
+    times.sort()
+    return times[samples / 2]
+}
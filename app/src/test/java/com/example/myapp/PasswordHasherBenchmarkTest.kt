@@ -0,0 +1,66 @@
+package com.example.myapp
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+// Runs on the host JVM. Besides correctness it prints the cost of one hash at several
+// iteration counts, which is what CredentialEngine's latency budget trades against.
+class PasswordHasherBenchmarkTest {
+
+    companion object {
+        private const val SAMPLES = 5
+        private val ITERATION_STEPS = intArrayOf(10_000, 50_000, 100_000, 200_000, 400_000)
+    }
+
+    @Test
+    fun matchesPbkdf2HmacSha256Vectors() {
+        val salt = "salt".toByteArray()
+        assertEquals("120fb6cffcf8b32c43e7225256c4f837a86548c92ccc35480805987cb70be17b",
+            hex(PasswordHasher.pbkdf2("password", salt, 1)))
+        assertEquals("ae4d0c95af6b46d32d0adff928f06dd02a303f8ef3c251dfd6e2d85a95474c43",
+            hex(PasswordHasher.pbkdf2("password", salt, 2)))
+        assertEquals("c5e478d59288c841aa530db6845c4c8d962893a001ce4e11a4963873aa98134a",
+            hex(PasswordHasher.pbkdf2("password", salt, 4096)))
+    }
+
+    @Test
+    fun verifiesOwnHashesAndLegacyPlaintext() {
+        val stored = PasswordHasher.hash("123456", 1_000)
+        assertTrue(PasswordHasher.verify("123456", stored))
+        assertFalse(PasswordHasher.verify("1234567", stored))
+        assertFalse(PasswordHasher.needsRehash(stored, 1_000))
+        assertTrue(PasswordHasher.needsRehash(stored, 2_000))
+
+        assertTrue(PasswordHasher.verify("123456", "123456"))
+        assertFalse(PasswordHasher.verify("123456", "654321"))
+        assertTrue(PasswordHasher.needsRehash("123456", 1_000))
+    }
+
+    @Test
+    fun saltsDiffer() {
+        assertFalse(PasswordHasher.hash("123456", 1_000) == PasswordHasher.hash("123456", 1_000))
+    }
+
+    @Test
+    fun hashCostByIterations() {
+        PasswordHasher.pbkdf2("warmup", ByteArray(16), 20_000)
+        for (iterations in ITERATION_STEPS) {
+            val micros = medianMicros(SAMPLES) { PasswordHasher.hash("benchmark", iterations) }
+            println("PasswordHasher: iterations=$iterations hash=${micros / 1000.0}ms")
+        }
+    }
+
+    @Test
+    fun calibrationStaysWithinBounds() {
+        for (target in longArrayOf(50L, 150L)) {
+            val iterations = PasswordHasher.calibrate(target)
+            val micros = medianMicros(SAMPLES) { PasswordHasher.hash("benchmark", iterations) }
+            println("PasswordHasher: target=${target}ms calibrated=$iterations measured=${micros / 1000.0}ms")
+            assertTrue(iterations in PasswordHasher.MIN_ITERATIONS..PasswordHasher.MAX_ITERATIONS)
+        }
+    }
+
+    private fun hex(bytes: ByteArray) = bytes.joinToString("") { "%02x".format(it) }
+}
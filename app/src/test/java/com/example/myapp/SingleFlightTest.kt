@@ -0,0 +1,83 @@
+package com.example.myapp
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.util.concurrent.Executor
+
+// Runs on the host JVM with an executor that only runs tasks when told to, so "in flight"
+// is deterministic.
+class SingleFlightTest {
+
+    private class ManualExecutor : Executor {
+        val tasks = ArrayList<Runnable>()
+
+        override fun execute(command: Runnable) {
+            tasks.add(command)
+        }
+
+        fun runAll() {
+            while (tasks.isNotEmpty()) tasks.removeAt(0).run()
+        }
+    }
+
+    @Test
+    fun identicalLoadsShareOneQuery() {
+        val executor = ManualExecutor()
+        val flight = SingleFlight<Long, String>(executor) { _, e -> throw AssertionError(e) }
+        var loads = 0
+        val results = ArrayList<String?>()
+        repeat(3) { flight.load(7L, { loads++; "profile7" }) { results.add(it) } }
+
+        executor.runAll()
+
+        assertEquals(1, loads)
+        assertEquals(listOf("profile7", "profile7", "profile7"), results)
+        assertEquals(1L, flight.stats().executed)
+        assertEquals(2L, flight.stats().deduplicated)
+    }
+
+    @Test
+    fun differentKeysAndLaterLoadsRunSeparately() {
+        val executor = ManualExecutor()
+        val flight = SingleFlight<Long, Long>(executor) { _, e -> throw AssertionError(e) }
+        val results = ArrayList<Long?>()
+        flight.load(1L, { 1L }) { results.add(it) }
+        flight.load(2L, { 2L }) { results.add(it) }
+        executor.runAll()
+        // Completed loads are not cached
+        flight.load(1L, { 10L }) { results.add(it) }
+        executor.runAll()
+
+        assertEquals(listOf(1L, 2L, 10L), results)
+        assertEquals(3L, flight.stats().executed)
+        assertEquals(0L, flight.stats().deduplicated)
+    }
+
+    @Test
+    fun failedLoadReachesEveryWaiter() {
+        val executor = ManualExecutor()
+        val errors = ArrayList<Long>()
+        val flight = SingleFlight<Long, String>(executor) { key, _ -> errors.add(key) }
+        val results = ArrayList<String?>()
+        repeat(3) { flight.load(1L, { throw IllegalStateException("db closed") }) { results.add(it) } }
+
+        // Does not throw on the executor thread
+        executor.runAll()
+
+        assertEquals(listOf(null, null, null), results)
+        assertEquals(listOf(1L), errors)
+    }
+
+    @Test
+    fun failedLoadDoesNotBlockTheKey() {
+        val executor = ManualExecutor()
+        val flight = SingleFlight<Long, String>(executor) { _, _ -> }
+        flight.load(1L, { throw IllegalStateException("db closed") }) {}
+        executor.runAll()
+        var result: String? = null
+        flight.load(1L, { "ok" }) { result = it }
+        executor.runAll()
+
+        assertEquals("ok", result)
+    }
+}
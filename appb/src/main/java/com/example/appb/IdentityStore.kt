@@ -0,0 +1,36 @@
+package com.example.appb
+
+import android.content.Context
+
+// The identity App A last authorized, kept so App B opens signed in on a cold start.
+// It is only a remembered answer: appbActivity re-asks App A in the background and
+// drops it once App A no longer stands behind it.
+object IdentityStore {
+
+    private const val PREFS_NAME = "app_a_identity"
+    private const val KEY_USERNAME = "username"
+    private const val KEY_NICKNAME = "nickname"
+    private const val KEY_AVATAR_VERSION = "avatar_version"
+
+    fun load(context: Context): QuickAuthClient.Identity? {
+        val prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+        val username = prefs.getString(KEY_USERNAME, null) ?: return null
+        return QuickAuthClient.Identity(
+            username,
+            prefs.getString(KEY_NICKNAME, null) ?: username,
+            prefs.getString(KEY_AVATAR_VERSION, null)
+        )
+    }
+
+    fun save(context: Context, identity: QuickAuthClient.Identity) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+            .putString(KEY_USERNAME, identity.username)
+            .putString(KEY_NICKNAME, identity.nickname)
+            .putString(KEY_AVATAR_VERSION, identity.avatarVersion)
+            .apply()
+    }
+
+    fun clear(context: Context) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit().clear().apply()
+    }
+}
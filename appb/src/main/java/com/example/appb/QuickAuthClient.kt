@@ -0,0 +1,102 @@
+package com.example.appb
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.net.Uri
+import android.util.Log
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.security.MessageDigest
+
+// Client for App A's headless quick login. One binder call to its provider; no Activity
+// is started. Does IPC (and may cold-start App A), so never call it on the main thread.
+// The avatar comes as a file descriptor from the same provider and is kept in cacheDir
+// per user and avatar version, so it is only transferred again after it changed.
+object QuickAuthClient {
+
+    private const val TAG = "QuickAuthClient"
+    private val PROVIDER_URI = Uri.parse("content://com.example.myapp.quickauth")
+    private const val METHOD_QUICK_LOGIN = "quick_login"
+    private const val KEY_STATUS = "STATUS"
+    private const val STATUS_GRANTED = "granted"
+    const val KEY_AVATAR_VERSION = "AUTH_AVATAR_VERSION"
+
+    private val AVATAR_URI = Uri.parse("content://com.example.myapp.quickauth/avatar")
+    private const val AVATAR_DIR = "app_a_avatars"
+    private const val MAX_AVATAR_BYTES = 256L * 1024
+
+    class Identity(val username: String, val nickname: String, val avatarVersion: String?)
+
+    sealed class Result {
+        class Granted(val identity: Identity) : Result()
+
+        // App A answered but wants the user's consent first: never given, expired, or
+        // dropped because the user logged out or switched account
+        object ConsentRequired : Result()
+
+        // App A is missing, signed differently or did not answer
+        object Unavailable : Result()
+    }
+
+    // Unless granted, the caller launches the interactive ACTION_AUTH_LOGIN flow
+    fun quickLogin(context: Context): Result {
+        val result = try {
+            context.contentResolver.call(PROVIDER_URI, METHOD_QUICK_LOGIN, null, null)
+        } catch (e: Exception) {
+            // SecurityException without the signature permission, IllegalArgumentException
+            // when App A is not installed
+            Log.w(TAG, "Quick login unavailable", e)
+            null
+        } ?: return Result.Unavailable
+        if (result.getString(KEY_STATUS) != STATUS_GRANTED) return Result.ConsentRequired
+        val username = result.getString("AUTH_USERNAME") ?: return Result.ConsentRequired
+        return Result.Granted(
+            Identity(username, result.getString("AUTH_NICKNAME") ?: username, result.getString(KEY_AVATAR_VERSION))
+        )
+    }
+
+    // The user's avatar at avatarVersion; null when App A has none or refuses. Blocks on
+    // I/O and IPC like quickLogin.
+    fun loadAvatar(context: Context, username: String, avatarVersion: String): Bitmap? {
+        val dir = File(context.cacheDir, AVATAR_DIR)
+        val prefix = MessageDigest.getInstance("SHA-256").digest(username.toByteArray())
+            .take(8).joinToString("") { "%02x".format(it) } + "-"
+        val cached = File(dir, prefix + avatarVersion)
+        if (cached.exists()) {
+            BitmapFactory.decodeFile(cached.path)?.let { return it }
+        }
+        if (!dir.exists() && !dir.mkdirs()) return null
+        val tmp = File(dir, cached.name + ".tmp")
+        try {
+            val pfd = context.contentResolver.openFileDescriptor(AVATAR_URI, "r") ?: return null
+            pfd.use {
+                if (it.statSize > MAX_AVATAR_BYTES) return null
+                // Read straight from App A's file; only the descriptor crossed the binder
+                FileInputStream(it.fileDescriptor).use { input ->
+                    FileOutputStream(tmp).use { output ->
+                        val buffer = ByteArray(8 * 1024)
+                        var total = 0L
+                        while (true) {
+                            val read = input.read(buffer)
+                            if (read < 0) break
+                            total += read
+                            if (total > MAX_AVATAR_BYTES) throw IllegalStateException("Avatar over $MAX_AVATAR_BYTES bytes")
+                            output.write(buffer, 0, read)
+                        }
+                    }
+                }
+            }
+            // Older versions of this user's avatar are of no further use
+            dir.listFiles()?.forEach { if (it.name.startsWith(prefix) && it != tmp) it.delete() }
+            if (!tmp.renameTo(cached)) return null
+        } catch (e: Exception) {
+            Log.w(TAG, "Could not fetch avatar", e)
+            return null
+        } finally {
+            tmp.delete()
+        }
+        return BitmapFactory.decodeFile(cached.path)
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.appb
+
+import androidx.compose.foundation.Image
+import androidx.compose.foundation.background
+import androidx.compose.foundation.layout.*
+import androidx.compose.foundation.shape.CircleShape
+import androidx.compose.material3.*
+import androidx.compose.runtime.Composable
+import androidx.compose.runtime.getValue
+import androidx.compose.runtime.produceState
+import androidx.compose.ui.Alignment
+import androidx.compose.ui.Modifier
+import androidx.compose.ui.draw.clip
+import androidx.compose.ui.graphics.Color
+import androidx.compose.ui.graphics.ImageBitmap
+import androidx.compose.ui.graphics.asImageBitmap
+import androidx.compose.ui.layout.ContentScale
+import androidx.compose.ui.platform.LocalContext
+import androidx.compose.ui.text.font.FontWeight
+import androidx.compose.ui.unit.dp
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+
+// The signed-in screen for an identity App A authorized, live or remembered
+@Composable
+fun WelcomeScreen(identity: QuickAuthClient.Identity, modifier: Modifier = Modifier, onLogout: () -> Unit) {
+    val context = LocalContext.current
+    // The initial stays in place until the avatar has been read from App A or the cache
+    val avatar by produceState<ImageBitmap?>(null, identity.username, identity.avatarVersion) {
+        val version = identity.avatarVersion ?: return@produceState
+        value = withContext(Dispatchers.IO) {
+            QuickAuthClient.loadAvatar(context, identity.username, version)
+        }?.asImageBitmap()
+    }
+    WelcomeScreenContent(
+        nickname = identity.nickname,
+        username = identity.username,
+        modifier = modifier,
+        avatar = avatar,
+        onLogout = onLogout
+    )
+}
+
+@Composable
+fun WelcomeScreenContent(
+    nickname: String,
+    username: String,
+    modifier: Modifier = Modifier,
+    avatar: ImageBitmap? = null,
+    onLogout: () -> Unit
+) {
+    Column(
+        modifier = modifier
+            .fillMaxSize()
+            .padding(24.dp),
+        horizontalAlignment = Alignment.CenterHorizontally,
+        verticalArrangement = Arrangement.Center
+    ) {
+        Box(
+            modifier = Modifier
+                .size(100.dp)
+                .clip(CircleShape)
+                .background(MaterialTheme.colorScheme.primaryContainer),
+            contentAlignment = Alignment.Center
+        ) {
+            if (avatar != null) {
+                Image(
+                    bitmap = avatar,
+                    contentDescription = null,
+                    modifier = Modifier.fillMaxSize(),
+                    contentScale = ContentScale.Crop
+                )
+            } else {
+                Text(
+                    text = if (nickname.isNotEmpty()) nickname.take(1).uppercase() else "?",
+                    style = MaterialTheme.typography.headlineLarge,
+                    color = MaterialTheme.colorScheme.onPrimaryContainer
+                )
+            }
+        }
+        
+        Spacer(modifier = Modifier.height(24.dp))
+        
+        Text(
+            text = "欢迎来到 App B!",
+            style = MaterialTheme.typography.headlineMedium,
+            fontWeight = FontWeight.Bold
+        )
+        
+        Spacer(modifier = Modifier.height(8.dp))
+        
+        Text(
+            text = "您好, $nickname",
+            style = MaterialTheme.typography.titleMedium
+        )
+        
+        Text(
+            text = "账号: $username",
+            style = MaterialTheme.typography.bodyMedium,
+            color = Color.Gray
+        )
+        
+        Spacer(modifier = Modifier.height(48.dp))
+        
+        OutlinedButton(
+            onClick = onLogout,
+            modifier = Modifier.fillMaxWidth()
+        ) {
+            Text("退出登录")
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.example.appb
 import android.app.Activity
 import android.content.Intent
 import android.os.Bundle
+import android.os.SystemClock
 import android.widget.Toast
 import androidx.activity.ComponentActivity
 import androidx.activity.compose.rememberLauncherForActivityResult
@@ -21,15 +22,20 @@ import androidx.compose.ui.tooling.preview.Preview
 import androidx.compose.ui.unit.dp
 import androidx.compose.ui.unit.sp
 import com.example.appb.ui.theme.MyAppTheme
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 
 class appbActivity : ComponentActivity() {
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
         enableEdgeToEdge()
+        // Read before the first frame, so a remembered identity is what the user sees first
+        val stored = IdentityStore.load(this)
         setContent {
             MyAppTheme {
                 Scaffold(modifier = Modifier.fillMaxSize()) { innerPadding ->
-                    LoginScreen(modifier = Modifier.padding(innerPadding))
+                    AppBScreen(stored, modifier = Modifier.padding(innerPadding))
                 }
             }
         }
@@ -37,8 +43,18 @@ class appbActivity : ComponentActivity() {
 }
 
 @Composable
-fun LoginScreen(modifier: Modifier = Modifier) {
+fun AppBScreen(stored: QuickAuthClient.Identity?, modifier: Modifier = Modifier) {
     val context = LocalContext.current
+    var identity by remember { mutableStateOf(stored) }
+
+    val onAuthorized = { authorized: QuickAuthClient.Identity ->
+        IdentityStore.save(context, authorized)
+        identity = authorized
+    }
+    val signOut = {
+        IdentityStore.clear(context)
+        identity = null
+    }
 
     val launcher = rememberLauncherForActivityResult(
         contract = ActivityResultContracts.StartActivityForResult()
@@ -47,19 +63,62 @@ fun LoginScreen(modifier: Modifier = Modifier) {
             val data = result.data
             val username = data?.getStringExtra("AUTH_USERNAME") ?: "未知"
             val nickname = data?.getStringExtra("AUTH_NICKNAME") ?: "未知"
-            
             Toast.makeText(context, "授权成功", Toast.LENGTH_SHORT).show()
-            
-            // 跳转到欢迎界面 Activity
-            val intent = Intent(context, WelcomeActivity::class.java).apply {
-                putExtra("AUTH_USERNAME", username)
-                putExtra("AUTH_NICKNAME", nickname)
-            }
-            context.startActivity(intent)
+            onAuthorized(QuickAuthClient.Identity(
+                username, nickname, data?.getStringExtra(QuickAuthClient.KEY_AVATAR_VERSION)))
         } else {
             Toast.makeText(context, "用户取消了授权", Toast.LENGTH_SHORT).show()
         }
     }
+    val startInteractiveLogin = {
+        val intent = Intent("com.example.myapp.ACTION_AUTH_LOGIN")
+        // App A logs the time from here to its first frame
+        intent.putExtra("LAUNCH_ELAPSED_REALTIME", SystemClock.elapsedRealtime())
+        try {
+            launcher.launch(intent)
+        } catch (e: Exception) {
+            Toast.makeText(context, "未找到 App A，请先安装", Toast.LENGTH_LONG).show()
+        }
+    }
+
+    val current = identity
+    if (current == null) {
+        LoginScreen(modifier, onAuthorized, startInteractiveLogin)
+        return
+    }
+    // 先显示本地保存的身份，再在后台向 App A 确认它仍然有效
+    LaunchedEffect(current.username) {
+        when (val result = withContext(Dispatchers.IO) { QuickAuthClient.quickLogin(context) }) {
+            is QuickAuthClient.Result.Granted -> {
+                if (result.identity.username == current.username) {
+                    // Picks up nickname and avatar changes made in App A
+                    onAuthorized(result.identity)
+                } else {
+                    signOut()
+                    startInteractiveLogin()
+                }
+            }
+            QuickAuthClient.Result.ConsentRequired -> {
+                // 授权被撤销或 App A 切换了账号：重新走授权流程
+                signOut()
+                startInteractiveLogin()
+            }
+            // App A cannot be asked right now; the remembered identity stays
+            QuickAuthClient.Result.Unavailable -> Unit
+        }
+    }
+    WelcomeScreen(current, modifier, onLogout = signOut)
+}
+
+@Composable
+fun LoginScreen(
+    modifier: Modifier = Modifier,
+    onAuthorized: (QuickAuthClient.Identity) -> Unit = {},
+    startInteractiveLogin: () -> Unit = {}
+) {
+    val context = LocalContext.current
+    val scope = rememberCoroutineScope()
+    var checking by remember { mutableStateOf(false) }
 
     // 登录前的界面
     Column(
@@ -88,13 +147,20 @@ fun LoginScreen(modifier: Modifier = Modifier) {
 
         Button(
             onClick = {
-                val intent = Intent("com.example.myapp.ACTION_AUTH_LOGIN")
-                try {
-                    launcher.launch(intent)
-                } catch (e: Exception) {
-                    Toast.makeText(context, "未找到 App A，请先安装", Toast.LENGTH_LONG).show()
+                checking = true
+                scope.launch {
+                    // 已授权过：App A 直接返回账号信息，无需打开授权界面
+                    val result = withContext(Dispatchers.IO) { QuickAuthClient.quickLogin(context) }
+                    checking = false
+                    if (result is QuickAuthClient.Result.Granted) {
+                        Toast.makeText(context, "授权成功", Toast.LENGTH_SHORT).show()
+                        onAuthorized(result.identity)
+                    } else {
+                        startInteractiveLogin()
+                    }
                 }
             },
+            enabled = !checking,
             modifier = Modifier
                 .fillMaxWidth()
                 .height(56.dp)